@@ -2,8 +2,13 @@ package nl.revolution.watchboard;
 
 import nl.revolution.watchboard.data.Dashboard;
 import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.images.ScreenshotPipeline;
+import nl.revolution.watchboard.plugins.AuthSessionManager;
+import nl.revolution.watchboard.plugins.SessionCache;
+import nl.revolution.watchboard.plugins.UpdateFailureTracker;
 import nl.revolution.watchboard.utils.IpAddressUtil;
-import org.apache.commons.io.IOUtils;
+import nl.revolution.watchboard.utils.ReadinessStats;
+import nl.revolution.watchboard.utils.RoundTripStats;
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -16,11 +21,10 @@ import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -35,15 +39,18 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.HEADER_CACHE_CONTROL;
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.HEADER_ETAG;
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.matchesETag;
+
 public class APIHandler extends AbstractHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(APIHandler.class);
 
     private static final String CONTENT_TYPE_JSON_UTF8 = "application/json;charset=utf-8";
-    private static final String IMAGE_PATH = Config.getInstance().getString(Config.TEMP_PATH);
-    private static final String LOADING_ICON_PATH = "/web/loading.gif";
     private static final Charset CHARSET_UTF_8 = Charset.forName("UTF-8");
     private static final int USER_STATS_LOG_INTERVAL_MINUTES = 5;
+    private static final String CACHE_CONTROL_REVALIDATE = "no-cache";
 
     // Caches.
     private static Map<String, ContextHandler> resourceHandlerCache = Collections.synchronizedMap(new HashMap<>());
@@ -67,8 +74,8 @@ public class APIHandler extends AbstractHandler {
             return;
         }
 
-        if (requestURI.startsWith(contextRoot + "images/")) {
-            createImageResponse(baseRequest, request, response, contextRoot, target);
+        if (requestURI.startsWith(contextRoot + "updates/")) {
+            createUpdatesResponse(target, baseRequest, request, response, contextRoot);
             return;
         }
 
@@ -153,12 +160,44 @@ public class APIHandler extends AbstractHandler {
     private void createStatusResponse(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response, String contextRoot) throws IOException, ServletException {
 
         String requestedDashboardId = baseRequest.getRequestURI().replaceAll(contextRoot + "status/", "");
-        Optional<Dashboard> dashboardOpt = Config.getInstance().getDashboards().stream().filter(board -> board.getId().equals(requestedDashboardId)).findFirst();
+        Optional<Dashboard> dashboardOpt = findDashboard(requestedDashboardId);
         if (!dashboardOpt.isPresent()) {
             new NotFoundHandler().handle(target, baseRequest, request, response);
             return;
         }
 
+        registerUser(request, dashboardOpt.get());
+        writeStatus(baseRequest, request, response, contextRoot, dashboardOpt.get());
+    }
+
+    private void createUpdatesResponse(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response, String contextRoot) throws IOException, ServletException {
+
+        String requestedDashboardId = baseRequest.getRequestURI().replaceAll(contextRoot + "updates/", "");
+        Optional<Dashboard> dashboardOpt = findDashboard(requestedDashboardId);
+        if (!dashboardOpt.isPresent()) {
+            new NotFoundHandler().handle(target, baseRequest, request, response);
+            return;
+        }
+
+        // A resumed request (update or timeout) always gets the current status.
+        if (request.getDispatcherType() == DispatcherType.REQUEST) {
+            registerUser(request, dashboardOpt.get());
+            Long clientVersion = parseLong(request.getParameter("version"));
+            if (clientVersion != null
+                    && DashboardStatusTracker.getInstance().awaitChange(requestedDashboardId, clientVersion, request)) {
+                baseRequest.setHandled(true);
+                return;
+            }
+        }
+
+        writeStatus(baseRequest, request, response, contextRoot, dashboardOpt.get());
+    }
+
+    private Optional<Dashboard> findDashboard(String dashboardId) {
+        return Config.getInstance().getDashboards().stream().filter(board -> board.getId().equals(dashboardId)).findFirst();
+    }
+
+    private void registerUser(HttpServletRequest request, Dashboard dashboard) {
         long tsNow = System.currentTimeMillis();
         if (tsNow - tsLastLoggedUserStats > USER_STATS_LOG_INTERVAL_MINUTES*60*1000) {
             synchronized (userStats) {
@@ -169,27 +208,30 @@ public class APIHandler extends AbstractHandler {
             }
         }
 
-        userStats.add(determineRemoteUserFingerPrint(request));
+        String fingerPrint = determineRemoteUserFingerPrint(request);
+        userStats.add(fingerPrint);
+        DashboardViewerTracker.getInstance().registerView(dashboard, fingerPrint);
+    }
 
-        response.setContentType(CONTENT_TYPE_JSON_UTF8);
-        response.setStatus(HttpServletResponse.SC_OK);
+    private void writeStatus(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+                             String contextRoot, Dashboard dashboard) {
         baseRequest.setHandled(true);
-        Dashboard dashboard = dashboardOpt.get();
-
-        JSONObject jsonResponse = new JSONObject();
-        jsonResponse.put("appVersion", DashboardServer.getAppVersion());
-        jsonResponse.put("configLastUpdated", Config.getInstance().getTSLastUpdate());
+        StatusDocument statusDocument = DashboardStatusTracker.getInstance().getStatusDocument(dashboard, contextRoot);
+        response.setHeader(HEADER_ETAG, statusDocument.getETag());
+        response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_REVALIDATE);
 
-        jsonResponse.put("id", dashboard.getId());
-        jsonResponse.put("title", dashboard.getTitle());
+        if (matchesETag(request, statusDocument.getETag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
 
-        JSONArray imagesArr = new JSONArray();
-        dashboard.getGraphs().stream().forEach(graph -> imagesArr.add(graph.toJSON(contextRoot)));
-        jsonResponse.put("images", imagesArr);
+        response.setContentType(CONTENT_TYPE_JSON_UTF8);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentLength(statusDocument.getContent().length);
 
         try {
             OutputStream out = response.getOutputStream();
-            out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
+            out.write(statusDocument.getContent());
             out.flush();
             out.close();
         } catch (IOException e) {
@@ -197,34 +239,6 @@ public class APIHandler extends AbstractHandler {
         }
     }
 
-
-    private void createImageResponse(Request baseRequest, HttpServletRequest request, HttpServletResponse response,
-                                     String contextRoot, String target) throws IOException, ServletException {
-        response.setStatus(HttpServletResponse.SC_OK);
-        baseRequest.setHandled(true);
-
-        String filename = request.getRequestURI().replaceAll(contextRoot + "images/", "");
-
-        if (filename.contains("/") || filename.contains("..")) {
-            new NotFoundHandler().handle(target, baseRequest, request, response);
-            return;
-        }
-
-        File imageFile = new File(IMAGE_PATH + "/" + filename);
-        OutputStream out = response.getOutputStream();
-        try {
-            IOUtils.copy(new FileInputStream(imageFile), out);
-        } catch (IOException e) {
-            LOG.error("Could not serve image file: {}. Serving loading icon.", imageFile);
-            IOUtils.copy(getClass().getResourceAsStream(LOADING_ICON_PATH), out);
-        }
-        out.flush();
-        out.close();
-        LOG.info("Served " + filename + ".");
-    }
-
-
-
     private void createGETConfigResponse(Request baseRequest, HttpServletResponse response, String message) throws IOException, ServletException {
         response.setContentType(CONTENT_TYPE_JSON_UTF8);
         response.setStatus(HttpServletResponse.SC_OK);
@@ -299,6 +313,18 @@ public class APIHandler extends AbstractHandler {
 
         jsonResponse.put("plugins", pluginsJa);
 
+        JSONArray imagesJa = new JSONArray();
+        ScreenshotPipeline.getInstance().getEncodingStats().forEach(stats -> imagesJa.add(stats.toJSON()));
+        jsonResponse.put("images", imagesJa);
+        jsonResponse.put("viewers", DashboardViewerTracker.getInstance().toJSON());
+        jsonResponse.put("graphChanges", GraphChangeTracker.getInstance().toJSON());
+        jsonResponse.put("readiness", ReadinessStats.getInstance().toJSON());
+        jsonResponse.put("roundTrips", RoundTripStats.getInstance().toJSON());
+        jsonResponse.put("updateFailures", UpdateFailureTracker.getInstance().toJSON());
+        JSONObject sessionsJo = SessionCache.getInstance().toJSON();
+        sessionsJo.putAll(AuthSessionManager.getInstance().toJSON());
+        jsonResponse.put("sessions", sessionsJo);
+
         try {
             OutputStream out = response.getOutputStream();
             out.write(jsonResponse.toJSONString().getBytes(CHARSET_UTF_8));
@@ -318,6 +344,17 @@ public class APIHandler extends AbstractHandler {
         }
     }
 
+    private Long parseLong(String value) {
+        if (StringUtils.isEmpty(value)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private String readFully(Reader reader) throws IOException {
         char[] arr = new char[8*1024]; // 8K at a time
         StringBuffer buf = new StringBuffer();
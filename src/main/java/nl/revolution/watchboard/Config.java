@@ -17,6 +17,7 @@ import java.io.StringReader;
 import java.util.*;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 public class Config {
 
@@ -32,6 +33,8 @@ public class Config {
     public static final String TITLE = "title";
     public static final String DEFAULT_NUMBER_OF_COLUMNS = "defaultNumberOfColumns";
     public static final String BACKEND_UPDATE_INTERVAL_SECONDS = "backendUpdateIntervalSeconds";
+    public static final String MIN_UPDATE_INTERVAL_SECONDS = "minUpdateIntervalSeconds";
+    public static final String MAX_UPDATE_INTERVAL_SECONDS = "maxUpdateIntervalSeconds";
     public static final String MAX_SESSION_DURATION_MINUTES = "maxSessionDurationMinutes";
     public static final String AWS_REGION = "aws.region";
     public static final String AWS_ACCESS_KEY_ID = "aws.accessKeyId";
@@ -39,7 +42,21 @@ public class Config {
     public static final String AWS_DYNAMODB_TABLE_NAME = "aws.dynamoDB.tableName";
     public static final String DASHBOARD_CONFIG_PERSISTENCE_TYPE = "dashboard.config.persistence.type";
     public static final String BROWSER_INSTANCES = "browserInstances";
-    public static final String BROWSER_INSTANCE = "browserInstance";
+    public static final String BROWSER_POOL_MIN_SIZE = "browserPool.minSize";
+    public static final String BROWSER_POOL_MAX_SIZE = "browserPool.maxSize";
+    public static final String IMAGES_PERSIST_TO_DISK = "images.persistToDisk";
+    public static final String IMAGES_PNG_COMPRESSION_LEVEL = "images.png.compressionLevel";
+    public static final String IMAGES_PNG_FILTER = "images.png.filter";
+    public static final String IMAGES_PNG_QUANTIZE = "images.png.quantize";
+    public static final String IMAGES_CHANGE_TOLERANCE = "images.changeTolerance";
+    public static final String SESSION_CACHE_ENABLED = "sessionCache.enabled";
+    public static final String SESSION_CACHE_PATH = "sessionCache.path";
+    public static final String DEMAND_CAPTURE_ENABLED = "demandCapture.enabled";
+    public static final String DEMAND_CAPTURE_VIEWER_TIMEOUT_MINUTES = "demandCapture.viewerTimeoutMinutes";
+    public static final String DEMAND_CAPTURE_BACKGROUND_INTERVAL_SECONDS = "demandCapture.backgroundIntervalSeconds";
+    public static final String WEBDRIVER_ROUND_TRIP_BUDGET = "webdriver.roundTripBudget";
+    public static final String TABS_ENABLED = "tabs.enabled";
+    public static final String TABS_MAX_PER_BROWSER = "tabs.maxPerBrowser";
 
     private enum DashboardConfigPersistenceType {
         DISK,
@@ -47,7 +64,7 @@ public class Config {
     }
 
     private static final List<String> REQUIRED_CONFIG_KEYS_GLOBAL = Arrays.asList(HTTP_PORT, WEB_CONTEXTROOT,
-            TEMP_PATH, MAX_SESSION_DURATION_MINUTES, PLUGINS, DASHBOARD_CONFIG_PERSISTENCE_TYPE, BROWSER_INSTANCES);
+            TEMP_PATH, MAX_SESSION_DURATION_MINUTES, PLUGINS, DASHBOARD_CONFIG_PERSISTENCE_TYPE);
 
     public static final String LOGIN_URL = "login.url";
     public static final String USERNAME = "username";
@@ -57,6 +74,11 @@ public class Config {
     private JSONObject globalConfig;
     private JSONObject dashboardsConfig;
     private List<Dashboard> dashboards;
+    private Map<Graph.Type, List<Graph>> capturesPerType;
+    private Map<String, List<String>> imageAliases;
+    private Map<String, List<GraphOutputSize>> outputSizesPerImage;
+    private Set<String> imageIds;
+    private Set<String> capturedGraphIds;
     private List<Plugin> plugins;
     private DashboardConfigPersistenceType dashboardConfigPersistenceType;
     private DashboardConfig dashboardConfigStore;
@@ -96,6 +118,7 @@ public class Config {
         parseDashboards();
         globalConfigFileLastModifiedOnDisk = diskConfigStore.getLastUpdated();
         dashboardConfigLastModified = dashboardConfigStore.getLastUpdated();
+        DashboardStatusTracker.getInstance().configUpdated();
 
         LOG.info("Config initialized. Configured {} dashboards with a total of {} graphs.",
                 dashboards.size(), dashboards.stream().map(Dashboard::getGraphs).flatMap(Collection::stream).count());
@@ -184,6 +207,59 @@ public class Config {
 
     private void parseDashboards() {
         dashboards = Dashboard.parseConfig(dashboardsConfig, plugins, getString(TEMP_PATH));
+        deduplicateCaptures();
+    }
+
+    /**
+     * A graph can be shown on several dashboards, and different graphs can show exactly the same; every unique
+     * capture only needs to be done once. The images of the first graph with a capture key are published for the
+     * other graphs with that key as well.
+     */
+    private void deduplicateCaptures() {
+        Map<Graph.Type, List<Graph>> captures = new EnumMap<>(Graph.Type.class);
+        Map<String, Graph> graphsByCaptureKey = new HashMap<>();
+        Set<String> graphIds = new HashSet<>();
+        int duplicateCount = 0;
+        for (Graph graph : dashboards.stream().flatMap(dashboard -> dashboard.getGraphs().stream()).collect(toList())) {
+            if (graph.getType() == null || graph.getType() == Graph.Type.DISK || !graphIds.add(graph.getId())) {
+                continue;
+            }
+            Graph capture = graphsByCaptureKey.putIfAbsent(graph.getCaptureKey(), graph);
+            if (capture != null) {
+                capture.getDuplicates().add(graph);
+                duplicateCount++;
+                LOG.debug("Graph {} is captured as part of graph {}.", graph.getId(), capture.getId());
+                continue;
+            }
+            captures.computeIfAbsent(graph.getType(), type -> new ArrayList<>()).add(graph);
+        }
+
+        Set<String> allImageIds = new HashSet<>();
+        dashboards.stream().flatMap(dashboard -> dashboard.getGraphs().stream()).forEach(graph -> {
+            allImageIds.add(graph.getId());
+            if (graph.getType() != Graph.Type.DISK) {
+                allImageIds.addAll(graph.getDerivedImageIds());
+            }
+        });
+
+        Map<String, List<String>> aliases = new HashMap<>();
+        Map<String, List<GraphOutputSize>> outputSizes = new HashMap<>();
+        captures.values().stream().flatMap(Collection::stream).forEach(graph -> {
+            aliases.putAll(graph.getImageAliases());
+            if (!graph.getOutputSizes().isEmpty()) {
+                outputSizes.put(graph.getId(), graph.getOutputSizes());
+            }
+        });
+        capturesPerType = captures;
+        imageAliases = aliases;
+        outputSizesPerImage = outputSizes;
+        imageIds = allImageIds;
+        capturedGraphIds = captures.values().stream().flatMap(Collection::stream).map(Graph::getId).collect(toSet());
+
+        if (duplicateCount > 0) {
+            LOG.info("{} graphs show the same as another graph; capturing {} unique graphs instead of {}.",
+                    duplicateCount, graphIds.size() - duplicateCount, graphIds.size());
+        }
     }
 
     private void parsePlugins() {
@@ -198,7 +274,8 @@ public class Config {
             plugin.setUsername(readString(pluginJo, USERNAME));
             plugin.setPassword(readString(pluginJo, PASSWORD));
             plugin.setUpdateIntervalSeconds(readInt(pluginJo, BACKEND_UPDATE_INTERVAL_SECONDS));
-            plugin.setBrowserInstance(readString(pluginJo, BROWSER_INSTANCE));
+            plugin.setMinUpdateIntervalSeconds(readInt(pluginJo, MIN_UPDATE_INTERVAL_SECONDS));
+            plugin.setMaxUpdateIntervalSeconds(readInt(pluginJo, MAX_UPDATE_INTERVAL_SECONDS));
             plugins.add(plugin);
         });
     }
@@ -232,6 +309,18 @@ public class Config {
         return readInt(globalConfig, key);
     }
 
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return readBoolean(globalConfig, key, defaultValue);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        Object value = globalConfig.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Double.parseDouble(value.toString());
+    }
+
     public static String readString(JSONObject jsonObject, String key) {
         Object value = jsonObject.get(key);
         if (value == null) {
@@ -248,6 +337,14 @@ public class Config {
         return Integer.valueOf(value.toString()).intValue();
     }
 
+    public static boolean readBoolean(JSONObject jsonObject, String key, boolean defaultValue) {
+        Object value = jsonObject.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.valueOf(value.toString());
+    }
+
     public static Integer readInteger(JSONObject jsonObject, String key) {
         Object value = jsonObject.get(key);
         if (value == null) {
@@ -300,7 +397,10 @@ public class Config {
     }
 
     public List<String> getBrowserInstances() {
-        JSONArray browserInstances = (JSONArray) globalConfig.get("browserInstances");
+        JSONArray browserInstances = (JSONArray) globalConfig.get(BROWSER_INSTANCES);
+        if (browserInstances == null) {
+            return Collections.emptyList();
+        }
         return (List<String>)browserInstances.stream().collect(toList());
     }
 
@@ -314,4 +414,41 @@ public class Config {
 
     }
 
+    /**
+     * @return the graphs of the given type that have to be captured; graphs that show the same as one of these are
+     * published from its capture
+     */
+    public List<Graph> getCapturesForType(Graph.Type graphType) {
+        return capturesPerType.getOrDefault(graphType, Collections.emptyList());
+    }
+
+    /**
+     * @return true if the given id is the id of a graph that is captured itself, rather than published from the
+     * capture of another graph
+     */
+    public boolean isCapturedGraph(String imageId) {
+        return capturedGraphIds.contains(imageId);
+    }
+
+    /**
+     * @return true if the given id is the id of a graph or of an image derived from a graph
+     */
+    public boolean isImageId(String imageId) {
+        return imageIds.contains(imageId);
+    }
+
+    /**
+     * @return the smaller copies that are published of the image with the given id
+     */
+    public List<GraphOutputSize> getOutputSizes(String imageId) {
+        return outputSizesPerImage.getOrDefault(imageId, Collections.emptyList());
+    }
+
+    /**
+     * @return the ids of the images that show the same as the image with the given id
+     */
+    public List<String> getImageAliases(String imageId) {
+        return imageAliases.getOrDefault(imageId, Collections.emptyList());
+    }
+
 }
@@ -0,0 +1,175 @@
+package nl.revolution.watchboard;
+
+import nl.revolution.watchboard.data.Dashboard;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a version number per dashboard that is bumped whenever one of its graph images is republished or the
+ * config is reloaded. Clients can wait for the next version (long-poll) instead of polling the status endpoint.
+ * The serialized status of each dashboard is cached until its version changes.
+ */
+public class DashboardStatusTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DashboardStatusTracker.class);
+    private static final long LONG_POLL_TIMEOUT_MS = 25 * 1000;
+
+    private static final DashboardStatusTracker instance = new DashboardStatusTracker();
+
+    private final AtomicLong versionSequence = new AtomicLong(System.currentTimeMillis());
+    private final Map<String, Long> dashboardVersions = new ConcurrentHashMap<>();
+    private final Map<String, Set<AsyncContext>> waitingClients = new ConcurrentHashMap<>();
+    private final Map<String, StatusDocument> statusDocuments = new ConcurrentHashMap<>();
+
+    public static DashboardStatusTracker getInstance() {
+        return instance;
+    }
+
+    public long getVersion(String dashboardId) {
+        return dashboardVersions.computeIfAbsent(dashboardId, id -> versionSequence.incrementAndGet());
+    }
+
+    /**
+     * Returns the serialized status of the dashboard, rebuilding it only when the dashboard changed since the
+     * previous call.
+     */
+    public StatusDocument getStatusDocument(Dashboard dashboard, String contextRoot) {
+        long version = getVersion(dashboard.getId());
+        StatusDocument document = statusDocuments.get(dashboard.getId());
+        if (document != null && document.getVersion() == version) {
+            return document;
+        }
+
+        document = buildStatusDocument(dashboard, contextRoot, version);
+
+        // Don't cache a document that was outdated by an update while it was being built.
+        if (getVersion(dashboard.getId()) == version) {
+            statusDocuments.put(dashboard.getId(), document);
+        }
+        return document;
+    }
+
+    private StatusDocument buildStatusDocument(Dashboard dashboard, String contextRoot, long version) {
+        JSONObject status = new JSONObject();
+        status.put("appVersion", DashboardServer.getAppVersion());
+        status.put("configLastUpdated", Config.getInstance().getTSLastUpdate());
+        status.put("version", version);
+
+        status.put("id", dashboard.getId());
+        status.put("title", dashboard.getTitle());
+
+        JSONArray imagesArr = new JSONArray();
+        dashboard.getGraphs().stream().forEach(graph -> imagesArr.add(graph.toJSON(contextRoot)));
+        status.put("images", imagesArr);
+
+        String eTag = "\"" + DashboardServer.getAppVersion() + "-" + version + "\"";
+        return new StatusDocument(version, eTag, status.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Marks all dashboards showing the given graph as changed and wakes up the clients waiting for them.
+     */
+    public void graphUpdated(String graphId) {
+        Config config = Config.getInstance();
+        if (config == null || config.getDashboards() == null) {
+            return;
+        }
+        config.getDashboards().stream()
+                .filter(dashboard -> dashboard.getGraphs().stream().anyMatch(graph -> graphId.equals(graph.getId())))
+                .map(Dashboard::getId)
+                .forEach(this::dashboardUpdated);
+    }
+
+    /**
+     * Marks all dashboards as changed. Called while the config is being (re)initialized, so this may not call
+     * back into Config.
+     */
+    public void configUpdated() {
+        dashboardVersions.keySet().forEach(this::dashboardUpdated);
+        waitingClients.keySet().forEach(this::dashboardUpdated);
+    }
+
+    private void dashboardUpdated(String dashboardId) {
+        dashboardVersions.put(dashboardId, versionSequence.incrementAndGet());
+        statusDocuments.remove(dashboardId);
+        Set<AsyncContext> clients = waitingClients.get(dashboardId);
+        if (clients == null) {
+            return;
+        }
+        clients.forEach(asyncContext -> resume(dashboardId, asyncContext));
+    }
+
+    /**
+     * Suspends the request until the dashboard version differs from the version the client already has, or until
+     * the long-poll timeout expires. In both cases the request is dispatched again to render the current status.
+     *
+     * @return true if the request was suspended, false if the client is not up to date and can be answered directly
+     */
+    public boolean awaitChange(String dashboardId, long clientVersion, HttpServletRequest request) {
+        if (getVersion(dashboardId) != clientVersion) {
+            return false;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(LONG_POLL_TIMEOUT_MS);
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                removeWaitingClient(dashboardId, asyncContext);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                resume(dashboardId, asyncContext);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                removeWaitingClient(dashboardId, asyncContext);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+                // Nothing to do.
+            }
+        });
+        waitingClients.computeIfAbsent(dashboardId, id -> ConcurrentHashMap.newKeySet()).add(asyncContext);
+
+        // The dashboard may have been updated between the version check and registering the client.
+        if (getVersion(dashboardId) != clientVersion) {
+            resume(dashboardId, asyncContext);
+        }
+        return true;
+    }
+
+    private void resume(String dashboardId, AsyncContext asyncContext) {
+        // Only the first caller (update or timeout) gets to dispatch the request.
+        if (!removeWaitingClient(dashboardId, asyncContext)) {
+            return;
+        }
+        try {
+            asyncContext.dispatch();
+        } catch (IllegalStateException e) {
+            LOG.debug("Could not resume request for dashboard {}: {}", dashboardId, e.getMessage());
+        }
+    }
+
+    private boolean removeWaitingClient(String dashboardId, AsyncContext asyncContext) {
+        Set<AsyncContext> clients = waitingClients.get(dashboardId);
+        return clients != null && clients.remove(asyncContext);
+    }
+
+}
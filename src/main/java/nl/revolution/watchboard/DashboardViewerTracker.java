@@ -0,0 +1,100 @@
+package nl.revolution.watchboard;
+
+import nl.revolution.watchboard.data.Dashboard;
+import nl.revolution.watchboard.data.Graph;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of which dashboards are being watched. Every status or long-poll request counts as a view; a
+ * dashboard is watched as long as its last view is within the viewer timeout. Open dashboards poll at least every
+ * long-poll timeout, so a closed dashboard is noticed within the viewer timeout.
+ */
+public class DashboardViewerTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DashboardViewerTracker.class);
+    private static final int DEFAULT_VIEWER_TIMEOUT_MINUTES = 5;
+
+    private static final DashboardViewerTracker instance = new DashboardViewerTracker();
+
+    private final Map<String, Long> lastViewTimestamps = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Long>> viewers = new ConcurrentHashMap<>();
+    private volatile Consumer<Dashboard> arrivalListener = dashboard -> { };
+
+    public static DashboardViewerTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers a listener that is called when a viewer opens a dashboard that wasn't watched.
+     */
+    public void setArrivalListener(Consumer<Dashboard> arrivalListener) {
+        this.arrivalListener = arrivalListener;
+    }
+
+    public void registerView(Dashboard dashboard, String viewerFingerPrint) {
+        long now = System.currentTimeMillis();
+        // Decided on the replaced timestamp, so of viewers arriving at the same time only one sees the arrival.
+        Long previousView = lastViewTimestamps.put(dashboard.getId(), now);
+        boolean wasWatched = previousView != null && now - previousView <= getViewerTimeoutMillis();
+        if (viewerFingerPrint != null) {
+            Map<String, Long> dashboardViewers = viewers.computeIfAbsent(dashboard.getId(), id -> new ConcurrentHashMap<>());
+            dashboardViewers.put(viewerFingerPrint, now);
+            long timeoutMillis = getViewerTimeoutMillis();
+            dashboardViewers.values().removeIf(viewedAt -> now - viewedAt > timeoutMillis);
+        }
+
+        if (!wasWatched) {
+            LOG.info("Dashboard {} is being watched again.", dashboard.getId());
+            arrivalListener.accept(dashboard);
+        }
+    }
+
+    public boolean isWatched(String dashboardId, long now) {
+        Long lastView = lastViewTimestamps.get(dashboardId);
+        return lastView != null && now - lastView <= getViewerTimeoutMillis();
+    }
+
+    /**
+     * @return true if at least one of the dashboards showing the graph, or an image derived from it, is being watched
+     */
+    public boolean isGraphWatched(Graph graph, long now) {
+        Set<String> imageIds = new HashSet<>();
+        imageIds.add(graph.getId());
+        imageIds.addAll(graph.getDerivedImageIds());
+        return Config.getInstance().getDashboards().stream()
+                .filter(dashboard -> isWatched(dashboard.getId(), now))
+                .anyMatch(dashboard -> dashboard.getGraphs().stream().anyMatch(shown -> imageIds.contains(shown.getId())));
+    }
+
+    public JSONArray toJSON() {
+        long now = System.currentTimeMillis();
+        long timeoutMillis = getViewerTimeoutMillis();
+        JSONArray dashboards = new JSONArray();
+        lastViewTimestamps.forEach((dashboardId, lastView) -> {
+            Map<String, Long> dashboardViewers = viewers.getOrDefault(dashboardId, Collections.emptyMap());
+            JSONObject dashboard = new JSONObject();
+            dashboard.put("id", dashboardId);
+            dashboard.put("watched", now - lastView <= timeoutMillis);
+            dashboard.put("viewers", dashboardViewers.values().stream().filter(viewedAt -> now - viewedAt <= timeoutMillis).count());
+            dashboard.put("secondsSinceLastView", (now - lastView) / 1000);
+            dashboards.add(dashboard);
+        });
+        return dashboards;
+    }
+
+    private long getViewerTimeoutMillis() {
+        int timeoutMinutes = Config.getInstance().getInt(Config.DEMAND_CAPTURE_VIEWER_TIMEOUT_MINUTES);
+        return (timeoutMinutes > 0 ? timeoutMinutes : DEFAULT_VIEWER_TIMEOUT_MINUTES) * 60 * 1000L;
+    }
+
+}
@@ -0,0 +1,121 @@
+package nl.revolution.watchboard;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns how often the image of each graph actually changes, and adapts its update interval to that. The change rate
+ * is a moving average over the recent captures: while most captures show the same image the interval is stretched,
+ * while most show a changed image it is shortened, so a single change doesn't undo what was learned. The interval
+ * stays within the bounds given by the plugin configuration.
+ *
+ * Changes are tracked per capture: only the main image of a captured graph counts. Its slices, other time ranges,
+ * output sizes and the graphs that show the same all change along with it.
+ */
+public class GraphChangeTracker {
+
+    private static final double STRETCH_FACTOR = 1.25;
+    private static final double SHRINK_FACTOR = 0.8;
+    // Weight of the latest capture in the change rate.
+    private static final double SAMPLE_WEIGHT = 0.25;
+    private static final double INITIAL_CHANGE_RATE = 0.5;
+    private static final double STRETCH_BELOW_CHANGE_RATE = 0.4;
+    private static final double SHRINK_ABOVE_CHANGE_RATE = 0.6;
+
+    private static final GraphChangeTracker instance = new GraphChangeTracker();
+
+    private final Map<String, GraphChanges> changesPerGraph = new ConcurrentHashMap<>();
+
+    public static GraphChangeTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records the publish of an image, if it is the main image of a captured graph.
+     *
+     * @param changed whether the image differs from the previously published image
+     */
+    public void recordPublish(String imageId, boolean changed) {
+        Config config = Config.getInstance();
+        if (config != null && config.isCapturedGraph(imageId)) {
+            recordCapture(imageId, changed);
+        }
+    }
+
+    /**
+     * @param changed whether the captured image differs from the previously published image of the graph
+     */
+    public void recordCapture(String graphId, boolean changed) {
+        changesPerGraph.computeIfAbsent(graphId, GraphChanges::new).recordCapture(changed);
+    }
+
+    /**
+     * @return the learned update interval of the graph, between the given bounds; the base interval as long as
+     * nothing was learned yet
+     */
+    public int getUpdateIntervalSeconds(String graphId, int baseSeconds, int minSeconds, int maxSeconds) {
+        if (baseSeconds <= 0) {
+            return baseSeconds;
+        }
+        return changesPerGraph.computeIfAbsent(graphId, GraphChanges::new)
+                .getIntervalSeconds(baseSeconds, Math.min(minSeconds, baseSeconds), Math.max(maxSeconds, baseSeconds));
+    }
+
+    public JSONArray toJSON() {
+        JSONArray graphs = new JSONArray();
+        changesPerGraph.values().forEach(changes -> graphs.add(changes.toJSON()));
+        return graphs;
+    }
+
+    private static class GraphChanges {
+        private final String graphId;
+        private long captures;
+        private long changes;
+        private double changeRate = INITIAL_CHANGE_RATE;
+        // Learned interval relative to the base interval, within the bounds of the last request.
+        private double factor = 1;
+        private double minFactor = 1;
+        private double maxFactor = 1;
+        private int intervalSeconds;
+
+        GraphChanges(String graphId) {
+            this.graphId = graphId;
+        }
+
+        synchronized void recordCapture(boolean changed) {
+            captures++;
+            if (changed) {
+                changes++;
+            }
+            changeRate += SAMPLE_WEIGHT * ((changed ? 1 : 0) - changeRate);
+            if (changeRate > SHRINK_ABOVE_CHANGE_RATE) {
+                factor = Math.max(minFactor, factor * SHRINK_FACTOR);
+            } else if (changeRate < STRETCH_BELOW_CHANGE_RATE) {
+                factor = Math.min(maxFactor, factor * STRETCH_FACTOR);
+            }
+        }
+
+        synchronized int getIntervalSeconds(int baseSeconds, int minSeconds, int maxSeconds) {
+            minFactor = (double) minSeconds / baseSeconds;
+            maxFactor = (double) maxSeconds / baseSeconds;
+            factor = Math.max(minFactor, Math.min(maxFactor, factor));
+            intervalSeconds = (int) Math.round(baseSeconds * factor);
+            return intervalSeconds;
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject graph = new JSONObject();
+            graph.put("id", graphId);
+            graph.put("captures", captures);
+            graph.put("changes", changes);
+            graph.put("changeRate", captures == 0 ? null : (double) changes / captures);
+            graph.put("recentChangeRate", captures == 0 ? null : Math.round(changeRate * 100) / 100.0);
+            graph.put("updateIntervalSeconds", intervalSeconds);
+            return graph;
+        }
+    }
+
+}
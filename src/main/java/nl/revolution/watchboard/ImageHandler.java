@@ -0,0 +1,120 @@
+package nl.revolution.watchboard;
+
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.images.ImageRegistry;
+import nl.revolution.watchboard.images.PublishedImage;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.HEADER_CACHE_CONTROL;
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.HEADER_ETAG;
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.HEADER_LAST_MODIFIED;
+import static nl.revolution.watchboard.utils.ConditionalRequestUtil.isNotModified;
+
+/**
+ * Serves the graph images. Runs outside of the gzip handler: the images are compressed already, and the gzip
+ * handler would mangle the ETag headers.
+ */
+public class ImageHandler extends AbstractHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageHandler.class);
+
+    private static final String LOADING_ICON_PATH = "/web/loading.gif";
+    private static final ByteBuffer LOADING_ICON = readLoadingIcon();
+    private static final String PARAM_WIDTH = "w";
+    private static final String CONTENT_TYPE_PNG = "image/png";
+    private static final String CONTENT_TYPE_GIF = "image/gif";
+    // Caches (browsers and proxies) may store images, but have to revalidate them before use.
+    private static final String CACHE_CONTROL_PUBLIC_REVALIDATE = "public, no-cache";
+    private static final String CACHE_CONTROL_NO_STORE = "no-store";
+
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+            throws IOException, ServletException {
+
+        final String imagesRoot = Config.getInstance().getContextRoot() + "api/v1/images/";
+        if (!request.getRequestURI().startsWith(imagesRoot)) {
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+
+        String filename = request.getRequestURI().replaceAll(imagesRoot, "");
+
+        if (filename.contains("/") || filename.contains("..")) {
+            new NotFoundHandler().handle(target, baseRequest, request, response);
+            return;
+        }
+
+        String graphId = StringUtils.removeEnd(filename, Graph.IMAGE_SUFFIX);
+        PublishedImage image = ImageRegistry.getInstance().get(graphId);
+        if (image == null) {
+            LOG.debug("No image published (yet) for {}. Serving loading icon.", filename);
+            serveLoadingIcon(baseRequest, response);
+            return;
+        }
+
+        Integer requestedWidth = parseWidth(request.getParameter(PARAM_WIDTH));
+        if (requestedWidth != null) {
+            image = ImageRegistry.getInstance().getVariant(image, requestedWidth);
+        }
+
+        String eTag = "\"" + image.getContentHash() + "\"";
+        response.setHeader(HEADER_ETAG, eTag);
+        response.setDateHeader(HEADER_LAST_MODIFIED, image.getLastModified());
+        response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_PUBLIC_REVALIDATE);
+
+        if (isNotModified(request, eTag, image.getLastModified())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            LOG.debug("Served {} (not modified).", filename);
+            return;
+        }
+
+        ByteBuffer content = image.getContent();
+        response.setContentType(CONTENT_TYPE_PNG);
+        response.setContentLength(content.remaining());
+        baseRequest.getResponse().getHttpOutput().sendContent(content);
+        LOG.debug("Served {}.", filename);
+    }
+
+    private Integer parseWidth(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void serveLoadingIcon(Request baseRequest, HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE_GIF);
+        response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_NO_STORE);
+        response.setContentLength(LOADING_ICON.remaining());
+        baseRequest.getResponse().getHttpOutput().sendContent(LOADING_ICON.duplicate());
+    }
+
+    private static ByteBuffer readLoadingIcon() {
+        try (InputStream icon = ImageHandler.class.getResourceAsStream(LOADING_ICON_PATH)) {
+            byte[] content = IOUtils.toByteArray(icon);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+            buffer.put(content).flip();
+            return buffer;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read loading icon.", e);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package nl.revolution.watchboard;
+
+/**
+ * Serialized status of a single dashboard, as served by the status and updates endpoints.
+ */
+public class StatusDocument {
+
+    private final long version;
+    private final String eTag;
+    private final byte[] content;
+
+    public StatusDocument(long version, String eTag, byte[] content) {
+        this.version = version;
+        this.eTag = eTag;
+        this.content = content;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+}
@@ -12,6 +12,7 @@ public class WebServer {
 
     private static final Logger LOG = LoggerFactory.getLogger(WebServer.class);
     public static final String STATIC_RESOURCE_PATH = WebServer.class.getClassLoader().getResource("web").toExternalForm();
+    private static final String GZIP_MIME_TYPES = "text/html,text/plain,text/css,text/javascript,application/javascript,application/json";
     // public static final String STATIC_RESOURCE_PATH = "/Users/bertjan/IdeaProjects/sandbox/watchboard/src/main/resources/web";
 
     public Server createServer() {
@@ -40,10 +41,17 @@ public class WebServer {
         webHandlers.addHandler(new APIHandler());
         webHandlers.addHandler(new NotFoundHandler());
         GzipHandler gzipHandler = new GzipHandler();
+        // Only compress text; images are compressed already.
+        gzipHandler.setMimeTypes(GZIP_MIME_TYPES);
         gzipHandler.setHandler(webHandlers);
 
+        // Images are served next to (instead of through) the gzip handler.
+        HandlerList rootHandlers = new HandlerList();
+        rootHandlers.addHandler(new ImageHandler());
+        rootHandlers.addHandler(gzipHandler);
+
         Server webServer = new Server(httpPort);
-        webServer.setHandler(gzipHandler);
+        webServer.setHandler(rootHandlers);
 
         LOG.info("Webserver created, listening on port {}", httpPort);
         return webServer;
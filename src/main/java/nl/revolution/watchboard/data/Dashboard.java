@@ -19,8 +19,11 @@ public class Dashboard {
     public static final String BROWSER_WIDTH = "browserWidth";
     public static final String BROWSER_HEIGHT = "browserHeight";
     public static final String TIME_RANGE = "timeRange";
+    public static final String TIME_RANGES = "timeRanges";
     public static final String URL = "url";
     public static final String COMPONENTS = "components";
+    public static final String SLICES = "slices";
+    public static final String OUTPUT_SIZES = "outputSizes";
     public static final String EXTENSION_PNG = ".png";
 
     private static final List<String> REQUIRED_CONFIG_KEYS_DASHBOARD = Arrays.asList(Config.ID, Config.TITLE, GRAPHS);
@@ -95,6 +98,31 @@ public class Dashboard {
                             }
                         }
                     });
+
+                    JSONArray outputSizes = (JSONArray) ((JSONObject) graph).get(OUTPUT_SIZES);
+                    if (outputSizes != null) {
+                        outputSizes.stream().forEach(outputSize -> {
+                            JSONObject outputSizeJson = (JSONObject) outputSize;
+                            if (!outputSizeJson.containsKey(Config.ID) || !outputSizeJson.containsKey(GraphOutputSize.WIDTH)) {
+                                validationResults.append("Output sizes need an id and a width; check graph '" +
+                                        ((JSONObject) graph).get("id") + "' of dashboard '" +
+                                        ((JSONObject) dashboard).get("id") + "'.\n");
+                            }
+                        });
+                    }
+
+                    JSONArray slices = (JSONArray) ((JSONObject) graph).get(SLICES);
+                    if (slices != null) {
+                        slices.stream().forEach(slice -> {
+                            JSONObject sliceJson = (JSONObject) slice;
+                            if (!sliceJson.containsKey(Config.ID)
+                                    || !(sliceJson.containsKey(GraphSlice.SELECTOR) || sliceJson.containsKey(GraphSlice.INDEX))) {
+                                validationResults.append("Slices need an id and either a selector or an index; " +
+                                        "check graph '" + ((JSONObject) graph).get("id") + "' of dashboard '" +
+                                        ((JSONObject) dashboard).get("id") + "'.\n");
+                            }
+                        });
+                    }
                 });
             }
 
@@ -137,24 +165,39 @@ public class Dashboard {
                 graph.setBrowserWidth(Config.readInt(graphObj, BROWSER_WIDTH));
                 graph.setBrowserHeight(Config.readInt(graphObj, BROWSER_HEIGHT));
                 graph.setTimeRange(Config.readInt(graphObj, TIME_RANGE));
+                JSONArray timeRangesJa = (JSONArray) graphObj.get(TIME_RANGES);
+                if (timeRangesJa != null) {
+                    parseTimeRanges(graph, timeRangesJa);
+                }
                 graph.setImagePath(tempPath + "/" + Config.readString(graphObj, Config.ID).toString() + EXTENSION_PNG);
 
                 Object componentsObj = graphObj.get(COMPONENTS);
                 if (componentsObj != null) {
                     graph.setComponents((List) componentsObj);
                 }
+                JSONArray slicesJa = (JSONArray) graphObj.get(SLICES);
+                if (slicesJa != null) {
+                    graph.setSlices(parseSlices(slicesJa));
+                }
+                JSONArray outputSizesJa = (JSONArray) graphObj.get(OUTPUT_SIZES);
+                if (outputSizesJa != null) {
+                    graph.setOutputSizes(parseOutputSizes(outputSizesJa));
+                }
                 dashboard.getGraphs().add(graph);
             }
             dashboards.add(dashboard);
         }
 
-        // Postprocess step: try to find a matching URL for each graph of type 'disk'.
+        // Postprocess step: try to find a matching URL for each graph of type 'disk'. Graphs of type 'disk' show the
+        // image that is published to the image store for the graph with the same id. That may also be an image
+        // derived from another graph, like a slice or another time range.
         dashboards.stream().flatMap(dbs -> dbs.getGraphs().stream())
                 .filter(graph -> graph.getType().equals(Graph.Type.DISK)).forEach(graphWithDiskSource -> {
             Optional<Graph> graphWithMatchingId =
                     dashboards.stream().flatMap(dbs -> dbs.getGraphs().stream())
                             .filter(graph -> !graph.getType().equals(Graph.Type.DISK))
-                            .filter(graph -> graph.getId().equals(graphWithDiskSource.getId()))
+                            .filter(graph -> graph.getId().equals(graphWithDiskSource.getId())
+                                    || graph.getDerivedImageIds().contains(graphWithDiskSource.getId()))
                             .findFirst();
             if (graphWithMatchingId.isPresent()) {
                 graphWithDiskSource.setUrl(graphWithMatchingId.get().getUrl());
@@ -164,5 +207,47 @@ public class Dashboard {
         return dashboards;
     }
 
+    /**
+     * The time range of the graph is captured first; without one, the first of the listed time ranges is.
+     */
+    private static void parseTimeRanges(Graph graph, JSONArray timeRangesJa) {
+        List<Integer> additionalTimeRanges = new ArrayList<>();
+        for (Object timeRangeObj : timeRangesJa) {
+            int timeRange = Integer.parseInt(timeRangeObj.toString());
+            if (graph.getTimeRange() <= 0) {
+                graph.setTimeRange(timeRange);
+            } else if (timeRange != graph.getTimeRange() && !additionalTimeRanges.contains(timeRange)) {
+                additionalTimeRanges.add(timeRange);
+            }
+        }
+        graph.setAdditionalTimeRanges(additionalTimeRanges);
+    }
+
+    private static List<GraphOutputSize> parseOutputSizes(JSONArray outputSizesJa) {
+        List<GraphOutputSize> outputSizes = new ArrayList<>();
+        for (Object outputSizeObj : outputSizesJa) {
+            JSONObject outputSizeJson = (JSONObject) outputSizeObj;
+            GraphOutputSize outputSize = new GraphOutputSize();
+            outputSize.setId(Config.readString(outputSizeJson, Config.ID));
+            outputSize.setWidth(Config.readInt(outputSizeJson, GraphOutputSize.WIDTH));
+            outputSize.setHeight(Config.readInt(outputSizeJson, GraphOutputSize.HEIGHT));
+            outputSizes.add(outputSize);
+        }
+        return outputSizes;
+    }
+
+    private static List<GraphSlice> parseSlices(JSONArray slicesJa) {
+        List<GraphSlice> slices = new ArrayList<>();
+        for (Object sliceObj : slicesJa) {
+            JSONObject sliceJson = (JSONObject) sliceObj;
+            GraphSlice slice = new GraphSlice();
+            slice.setId(Config.readString(sliceJson, Config.ID));
+            slice.setSelector(Config.readString(sliceJson, GraphSlice.SELECTOR));
+            slice.setIndex(Config.readInt(sliceJson, GraphSlice.INDEX));
+            slices.add(slice);
+        }
+        return slices;
+    }
+
 
 }
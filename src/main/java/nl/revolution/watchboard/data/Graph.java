@@ -1,11 +1,16 @@
 package nl.revolution.watchboard.data;
 
+import nl.revolution.watchboard.images.ImageRegistry;
+import nl.revolution.watchboard.images.ImageVariantCache;
+import nl.revolution.watchboard.images.PublishedImage;
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Graph {
 
@@ -17,6 +22,7 @@ public class Graph {
     public static final String IMAGES_PATH = "images/";
     public static final String IMAGE_SUFFIX = ".png";
     public static final String COMPONENTS = "components";
+    public static final String SRCSET = "srcset";
 
     public enum Type {
         CLOUDWATCH, PERFORMR, DISK, CLOUDWATCH_DASHBOARD, KIBANA, KIBANA5, SONAR;
@@ -52,15 +58,26 @@ public class Graph {
     private int browserWidth;
     private int browserHeight;
     private int timeRange;
+    private List<Integer> additionalTimeRanges = new ArrayList<>();
     private List<String> components;
+    private List<GraphSlice> slices = new ArrayList<>();
+    private List<GraphOutputSize> outputSizes = new ArrayList<>();
+    private List<Graph> duplicates = new ArrayList<>();
 
     public JSONObject toJSON(String contextRoot) {
         JSONObject json = new JSONObject();
         json.put(ID, id);
         json.put(URL, url);
         json.put(TYPE, type.toString());
-        json.put(FILENAME, contextRoot + IMAGES_PATH + id + IMAGE_SUFFIX);
-        json.put(LAST_MODIFIED, determineLastModified());
+        String filename = contextRoot + IMAGES_PATH + id + IMAGE_SUFFIX;
+        long lastModified = determineLastModified();
+        json.put(FILENAME, filename);
+        json.put(LAST_MODIFIED, lastModified);
+
+        int imageWidth = determineImageWidth();
+        if (imageWidth > 0) {
+            json.put(SRCSET, createSrcset(filename, lastModified, imageWidth));
+        }
 
         if (components != null) {
             JSONArray componentsJa = new JSONArray();
@@ -71,7 +88,27 @@ public class Graph {
     }
 
     protected long determineLastModified() {
-        return new File(imagePath).lastModified();
+        PublishedImage image = ImageRegistry.getInstance().get(id);
+        return image != null ? image.getLastModified() : 0;
+    }
+
+    protected int determineImageWidth() {
+        PublishedImage image = ImageRegistry.getInstance().get(id);
+        return image != null ? image.getWidth() : 0;
+    }
+
+    /**
+     * Lists the downscaled variants that are smaller than the image itself, followed by the full size image.
+     */
+    private String createSrcset(String filename, long lastModified, int imageWidth) {
+        List<String> candidates = new ArrayList<>();
+        for (int width : ImageVariantCache.VARIANT_WIDTHS) {
+            if (width < imageWidth) {
+                candidates.add(filename + "?w=" + width + "&t=" + lastModified + " " + width + "w");
+            }
+        }
+        candidates.add(filename + "?t=" + lastModified + " " + imageWidth + "w");
+        return StringUtils.join(candidates, ", ");
     }
 
     public String getUrl() {
@@ -130,6 +167,118 @@ public class Graph {
         this.components = components;
     }
 
+    /**
+     * @return the parts of the page of this graph that are published as separate images, besides the graph itself
+     */
+    public List<GraphSlice> getSlices() {
+        return slices;
+    }
+
+    /**
+     * @return the slices of the graph as captured at one of its additional time ranges, with the ids they are
+     * published under
+     */
+    public List<GraphSlice> getSlices(int additionalTimeRange) {
+        List<GraphSlice> timeRangeSlices = new ArrayList<>();
+        for (GraphSlice slice : slices) {
+            GraphSlice timeRangeSlice = new GraphSlice();
+            timeRangeSlice.setId(timeRangeImageId(slice.getId(), additionalTimeRange));
+            timeRangeSlice.setSelector(slice.getSelector());
+            timeRangeSlice.setIndex(slice.getIndex());
+            timeRangeSlices.add(timeRangeSlice);
+        }
+        return timeRangeSlices;
+    }
+
+    /**
+     * @return the id under which the graph is published as captured at one of its additional time ranges
+     */
+    public String getTimeRangeImageId(int additionalTimeRange) {
+        return timeRangeImageId(id, additionalTimeRange);
+    }
+
+    private static String timeRangeImageId(String imageId, int timeRange) {
+        return imageId + "-" + timeRange;
+    }
+
+    /**
+     * @return the ids of all images that are published from the page of this graph, besides the graph itself: its
+     * slices, the graph and its slices at each additional time range, its output sizes, and the images of its
+     * duplicates
+     */
+    public List<String> getDerivedImageIds() {
+        List<String> imageIds = getOwnImageIds();
+        imageIds.remove(0);
+        duplicates.forEach(duplicate -> imageIds.addAll(duplicate.getOwnImageIds()));
+        return imageIds;
+    }
+
+    private List<String> getOwnImageIds() {
+        List<String> imageIds = new ArrayList<>();
+        imageIds.add(id);
+        slices.forEach(slice -> imageIds.add(slice.getId()));
+        for (int additionalTimeRange : additionalTimeRanges) {
+            imageIds.add(getTimeRangeImageId(additionalTimeRange));
+            getSlices(additionalTimeRange).forEach(slice -> imageIds.add(slice.getId()));
+        }
+        outputSizes.forEach(outputSize -> imageIds.add(outputSize.getId()));
+        return imageIds;
+    }
+
+    /**
+     * @return smaller copies of the image of the graph that are published as separate images, scaled down from its
+     * capture
+     */
+    public List<GraphOutputSize> getOutputSizes() {
+        return outputSizes;
+    }
+
+    public void setOutputSizes(List<GraphOutputSize> outputSizes) {
+        this.outputSizes = outputSizes;
+    }
+
+    /**
+     * Identifies what is captured for this graph. Graphs with the same capture key produce the same images, so only
+     * one of them has to be captured.
+     */
+    public String getCaptureKey() {
+        StringBuilder captureKey = new StringBuilder();
+        captureKey.append(type).append('|').append(url).append('|').append(browserWidth).append('x').append(browserHeight)
+                .append('|').append(timeRange).append('|').append(components).append('|').append(additionalTimeRanges);
+        slices.forEach(slice -> captureKey.append('|').append(slice.getSelector()).append('#').append(slice.getIndex()));
+        outputSizes.forEach(outputSize -> captureKey.append("|>").append(outputSize.getWidth()).append('x')
+                .append(outputSize.getHeight()));
+        return captureKey.toString();
+    }
+
+    /**
+     * @return other graphs with the same capture key as this graph, which are published from the capture of this
+     * graph
+     */
+    public List<Graph> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return for every image published from the page of this graph, the ids of the matching images of its
+     * duplicates
+     */
+    public Map<String, List<String>> getImageAliases() {
+        Map<String, List<String>> aliases = new LinkedHashMap<>();
+        List<String> imageIds = getOwnImageIds();
+        for (Graph duplicate : duplicates) {
+            List<String> duplicateImageIds = duplicate.getOwnImageIds();
+            for (int i = 0; i < imageIds.size(); i++) {
+                aliases.computeIfAbsent(imageIds.get(i), imageId -> new ArrayList<>()).add(duplicateImageIds.get(i));
+            }
+        }
+        return aliases;
+    }
+
+    public void setSlices(List<GraphSlice> slices) {
+        this.slices = slices;
+    }
+
     public int getTimeRange() {
         return timeRange;
     }
@@ -138,5 +287,16 @@ public class Graph {
         this.timeRange = timeRange;
     }
 
+    /**
+     * @return the time ranges that the graph is captured at from the same page load, after its own time range
+     */
+    public List<Integer> getAdditionalTimeRanges() {
+        return additionalTimeRanges;
+    }
+
+    public void setAdditionalTimeRanges(List<Integer> additionalTimeRanges) {
+        this.additionalTimeRanges = additionalTimeRanges;
+    }
+
 }
 
@@ -0,0 +1,43 @@
+package nl.revolution.watchboard.data;
+
+/**
+ * A smaller copy of the image of a graph, published as an image of its own. It is scaled down from the capture of
+ * the graph, so a graph that is shown at several sizes is only rendered once, at its own (largest) size.
+ */
+public class GraphOutputSize {
+
+    public static final String WIDTH = "width";
+    public static final String HEIGHT = "height";
+
+    private String id;
+    private int width;
+    private int height = -1;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * @return the maximum height of the image, or -1 if only its width is fixed; the aspect ratio is always kept
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+}
@@ -0,0 +1,44 @@
+package nl.revolution.watchboard.data;
+
+/**
+ * Part of the page of a graph that is published as an image of its own, so a dashboard page that shows many widgets
+ * only has to be loaded once to update all of them. A slice is found either by a CSS selector, or by its position
+ * among the widgets of the page.
+ */
+public class GraphSlice {
+
+    public static final String SELECTOR = "selector";
+    public static final String INDEX = "index";
+
+    private String id;
+    private String selector;
+    private int index = -1;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    public void setSelector(String selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * @return the position of the slice among the widgets of the page, starting at 0; -1 if it has a selector
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+}
@@ -9,10 +9,10 @@ public class Plugin {
     private String password;
     private String loginUrl;
     private int updateIntervalSeconds;
+    private int minUpdateIntervalSeconds;
+    private int maxUpdateIntervalSeconds;
     private LocalDateTime tsLastUpdated;
 
-    private String browserInstance;
-
     public Graph.Type getType() {
         return type;
     }
@@ -61,12 +61,20 @@ public class Plugin {
         return tsLastUpdated;
     }
 
-    public String getBrowserInstance() {
-        return browserInstance;
+    public int getMinUpdateIntervalSeconds() {
+        return minUpdateIntervalSeconds;
+    }
+
+    public void setMinUpdateIntervalSeconds(int minUpdateIntervalSeconds) {
+        this.minUpdateIntervalSeconds = minUpdateIntervalSeconds;
+    }
+
+    public int getMaxUpdateIntervalSeconds() {
+        return maxUpdateIntervalSeconds;
     }
 
-    public void setBrowserInstance(String browserInstance) {
-        this.browserInstance = browserInstance;
+    public void setMaxUpdateIntervalSeconds(int maxUpdateIntervalSeconds) {
+        this.maxUpdateIntervalSeconds = maxUpdateIntervalSeconds;
     }
 
     public String toString() {
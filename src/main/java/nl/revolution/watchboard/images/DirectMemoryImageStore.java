@@ -0,0 +1,105 @@
+package nl.revolution.watchboard.images;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the images in direct (off-heap) buffers. A publish allocates a new buffer and swaps it in; buffers that
+ * are still being written to clients stay valid until the last reader releases them.
+ *
+ * Optionally, images are persisted to disk as well, so they are available directly after a restart. Only images of
+ * configured graphs are restored from disk, so other files in the directory are never served.
+ *
+ * Direct buffers are only freed after garbage collection, so the JVM needs room for at least twice the images and
+ * their variants; raise -XX:MaxDirectMemorySize (which defaults to the maximum heap size) for large setups.
+ */
+public class DirectMemoryImageStore implements ImageStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectMemoryImageStore.class);
+    private static final String EXTENSION_PNG = ".png";
+
+    private final File persistencePath;
+    private final Predicate<String> isRestorable;
+    private final AtomicLong versionSequence = new AtomicLong();
+    private final Map<String, PublishedImage> images = new ConcurrentHashMap<>();
+
+    /**
+     * @param persistencePath directory to persist images to and restore images from, or null to keep images in
+     *                        memory only
+     * @param isRestorable    tells whether an image with the given id may be restored from disk
+     */
+    public DirectMemoryImageStore(File persistencePath, Predicate<String> isRestorable) {
+        this.persistencePath = persistencePath;
+        this.isRestorable = isRestorable;
+    }
+
+    @Override
+    public PublishedImage publish(String graphId, byte[] content, String contentHash) {
+        PublishedImage image = createImage(graphId, content, contentHash, System.currentTimeMillis());
+        images.put(graphId, image);
+        persist(graphId, content);
+        return image;
+    }
+
+    @Override
+    public PublishedImage get(String graphId) {
+        PublishedImage image = images.get(graphId);
+        if (image != null || persistencePath == null || !isRestorable.test(graphId)) {
+            return image;
+        }
+        return restore(graphId);
+    }
+
+    private PublishedImage createImage(String graphId, byte[] content, String contentHash, long lastModified) {
+        return PublishedImage.create(graphId, content, contentHash, lastModified, versionSequence.incrementAndGet());
+    }
+
+    private void persist(String graphId, byte[] content) {
+        if (persistencePath == null) {
+            return;
+        }
+        File imageFile = getImageFile(graphId);
+        try {
+            // Write to a temp file and rename, so a restart never picks up a partially written image.
+            File tempFile = File.createTempFile("." + graphId + "-", ".tmp", persistencePath);
+            FileUtils.writeByteArrayToFile(tempFile, content);
+            Files.move(tempFile.toPath(), imageFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Error while persisting image {}: ", imageFile, e);
+        }
+    }
+
+    private PublishedImage restore(String graphId) {
+        File imageFile = getImageFile(graphId);
+        if (!imageFile.isFile()) {
+            return null;
+        }
+        try {
+            byte[] content = FileUtils.readFileToByteArray(imageFile);
+            PublishedImage image = createImage(graphId, content, DigestUtils.sha1Hex(content), imageFile.lastModified());
+            PublishedImage published = images.putIfAbsent(graphId, image);
+            LOG.debug("Restored image {} from disk.", imageFile);
+            return published != null ? published : image;
+        } catch (IOException e) {
+            LOG.error("Error while restoring image {}: ", imageFile, e);
+            return null;
+        }
+    }
+
+    private File getImageFile(String graphId) {
+        return new File(persistencePath, graphId + EXTENSION_PNG);
+    }
+
+}
@@ -0,0 +1,59 @@
+package nl.revolution.watchboard.images;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Encoding statistics of a single graph. Savings are estimated against the size of the default ImageIO truecolor
+ * encoding, which is measured for a sample of the encoded images.
+ */
+public class EncodingStats {
+
+    private final String graphId;
+    private long encodeCount;
+    private long totalEncodeMillis;
+    private long totalEncodedBytes;
+    private long totalSavedBytes;
+    private long lastEncodedBytes;
+    private long lastReferenceBytes;
+    private long suppressedCount;
+
+    EncodingStats(String graphId) {
+        this.graphId = graphId;
+    }
+
+    synchronized void recordReference(long referenceBytes) {
+        lastReferenceBytes = referenceBytes;
+    }
+
+    synchronized void recordEncode(long encodedBytes, long encodeMillis) {
+        encodeCount++;
+        totalEncodeMillis += encodeMillis;
+        totalEncodedBytes += encodedBytes;
+        lastEncodedBytes = encodedBytes;
+        if (lastReferenceBytes > 0) {
+            totalSavedBytes += lastReferenceBytes - encodedBytes;
+        }
+    }
+
+    synchronized void recordSuppressed() {
+        suppressedCount++;
+    }
+
+    synchronized long getEncodeCount() {
+        return encodeCount;
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        stats.put("id", graphId);
+        stats.put("encodeCount", encodeCount);
+        stats.put("averageEncodeMillis", encodeCount == 0 ? 0 : totalEncodeMillis / encodeCount);
+        stats.put("lastEncodedBytes", lastEncodedBytes);
+        stats.put("lastReferenceBytes", lastReferenceBytes);
+        stats.put("totalEncodedBytes", totalEncodedBytes);
+        stats.put("totalSavedBytes", totalSavedBytes);
+        stats.put("suppressedCount", suppressedCount);
+        return stats;
+    }
+
+}
@@ -0,0 +1,109 @@
+package nl.revolution.watchboard.images;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.DashboardStatusTracker;
+import nl.revolution.watchboard.GraphChangeTracker;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entry point for publishing and looking up graph images. Images are kept in memory, so that status and image
+ * requests don't have to hit the file system for every graph on every request.
+ */
+public class ImageRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageRegistry.class);
+
+    private static ImageRegistry instance;
+
+    private final ImageStore imageStore;
+    private final ImageVariantCache variantCache = new ImageVariantCache();
+    private final Map<String, Object> publishLocks = new ConcurrentHashMap<>();
+
+    public static ImageRegistry getInstance() {
+        if (instance != null) {
+            return instance;
+        }
+
+        synchronized (ImageRegistry.class) {
+            if (instance == null) {
+                instance = new ImageRegistry(createImageStore());
+            }
+            return instance;
+        }
+    }
+
+    ImageRegistry(ImageStore imageStore) {
+        this.imageStore = imageStore;
+    }
+
+    private static ImageStore createImageStore() {
+        if (Config.getInstance().getBoolean(Config.IMAGES_PERSIST_TO_DISK, true)) {
+            String tempPath = Config.getInstance().getString(Config.TEMP_PATH);
+            LOG.info("Persisting images to {}.", tempPath);
+            return new DirectMemoryImageStore(new File(tempPath), Config.getInstance()::isImageId);
+        }
+        LOG.info("Keeping images in memory only.");
+        return new DirectMemoryImageStore(null, imageId -> false);
+    }
+
+    /**
+     * Publishes a new image for the given graph and notifies the dashboards showing it. Publishing the same content
+     * again changes nothing, so clients don't download it again.
+     */
+    public PublishedImage publish(String graphId, byte[] content) {
+        return publish(graphId, content, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #publish(String, byte[])}, together with downscaled variants of the image.
+     *
+     * @param variants PNG content of the variants by width, as created by {@link ImageVariantCache#createVariants}
+     */
+    public PublishedImage publish(String graphId, byte[] content, Map<Integer, byte[]> variants) {
+        String contentHash = DigestUtils.sha1Hex(content);
+        PublishedImage previous;
+        PublishedImage image;
+        // Compare and replace as one step, so concurrent publishes of a graph can't both see the same previous image.
+        synchronized (publishLocks.computeIfAbsent(graphId, id -> new Object())) {
+            previous = imageStore.get(graphId);
+            if (previous != null && previous.getContentHash().equals(contentHash)) {
+                // An image restored from disk has no variants yet.
+                if (!variants.isEmpty() && !variantCache.has(previous)) {
+                    variantCache.put(previous, variants);
+                }
+                GraphChangeTracker.getInstance().recordPublish(graphId, false);
+                return previous;
+            }
+            image = imageStore.publish(graphId, content, contentHash);
+            variantCache.put(image, variants);
+        }
+        if (previous != null) {
+            GraphChangeTracker.getInstance().recordPublish(graphId, true);
+        }
+        DashboardStatusTracker.getInstance().graphUpdated(graphId);
+        return image;
+    }
+
+    /**
+     * @return the current image of the given graph, or null if no image exists (yet)
+     */
+    public PublishedImage get(String graphId) {
+        return imageStore.get(graphId);
+    }
+
+    /**
+     * @return a downscaled variant of the image for clients that display it at the given width, or the image itself
+     * if there is none
+     */
+    public PublishedImage getVariant(PublishedImage image, int width) {
+        return variantCache.get(image, width);
+    }
+
+}
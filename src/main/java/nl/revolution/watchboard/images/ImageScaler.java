@@ -0,0 +1,61 @@
+package nl.revolution.watchboard.images;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales graph images down without losing thin lines.
+ */
+final class ImageScaler {
+
+    private ImageScaler() {
+        // Utility class.
+    }
+
+    static BufferedImage scale(BufferedImage image, int width, int height) {
+        // Halve the size in steps; scaling down in one bilinear step skips pixels and loses thin graph lines.
+        BufferedImage scaled = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            scaled = resize(scaled, currentWidth, currentHeight);
+        } while (currentWidth != width || currentHeight != height);
+        return scaled;
+    }
+
+    /**
+     * Scales the image down to the given width, or to fit within the given width and height, keeping its aspect
+     * ratio. Images that already fit are returned as they are.
+     *
+     * @param maxHeight maximum height, or -1 to scale to the width only
+     */
+    static BufferedImage fit(BufferedImage image, int maxWidth, int maxHeight) {
+        double factor = (double) maxWidth / image.getWidth();
+        if (maxHeight > 0) {
+            factor = Math.min(factor, (double) maxHeight / image.getHeight());
+        }
+        if (factor >= 1) {
+            return image;
+        }
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        return scale(image, width, height);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+}
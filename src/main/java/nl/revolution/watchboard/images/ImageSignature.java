@@ -0,0 +1,58 @@
+package nl.revolution.watchboard.images;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Compact fingerprint of an image: a hash per block of 16x16 pixels. Two signatures tell how much of an image
+ * changed, without keeping the previous image itself around.
+ */
+final class ImageSignature {
+
+    static final int BLOCK_SIZE = 16;
+
+    private final int width;
+    private final int height;
+    private final int[] blockHashes;
+
+    private ImageSignature(int width, int height, int[] blockHashes) {
+        this.width = width;
+        this.height = height;
+        this.blockHashes = blockHashes;
+    }
+
+    static ImageSignature of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockHashes = new int[blocksX * blocksY];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int blockRowOffset = (y / BLOCK_SIZE) * blocksX;
+            for (int x = 0; x < width; x++) {
+                int block = blockRowOffset + x / BLOCK_SIZE;
+                blockHashes[block] = blockHashes[block] * 31 + row[x];
+            }
+        }
+        return new ImageSignature(width, height, blockHashes);
+    }
+
+    /**
+     * @return the fraction of blocks that differ, between 0 (identical) and 1; images of a different size differ
+     * completely
+     */
+    double difference(ImageSignature other) {
+        if (other == null || width != other.width || height != other.height) {
+            return 1;
+        }
+        int changedBlocks = 0;
+        for (int i = 0; i < blockHashes.length; i++) {
+            if (blockHashes[i] != other.blockHashes[i]) {
+                changedBlocks++;
+            }
+        }
+        return blockHashes.length == 0 ? 0 : (double) changedBlocks / blockHashes.length;
+    }
+
+}
@@ -0,0 +1,21 @@
+package nl.revolution.watchboard.images;
+
+/**
+ * Storage for the most recent image of each graph.
+ */
+public interface ImageStore {
+
+    /**
+     * Stores a newly captured image, atomically replacing the previous image of the graph. Readers either get the
+     * previous or the new image, never a partially written one.
+     *
+     * @param contentHash SHA-1 hash of the content, as hex string
+     */
+    PublishedImage publish(String graphId, byte[] content, String contentHash);
+
+    /**
+     * @return the current image of the graph, or null if no image exists (yet)
+     */
+    PublishedImage get(String graphId);
+
+}
@@ -0,0 +1,105 @@
+package nl.revolution.watchboard.images;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Downscaled variants of the published images, for clients that display graphs smaller than they were captured.
+ * Requested widths are rounded up to a fixed set of widths, so each published image has only a few variants. The
+ * variants are created by the screenshot pipeline when an image is published, while the decoded image is at hand;
+ * image requests only look them up.
+ */
+public class ImageVariantCache {
+
+    public static final int[] VARIANT_WIDTHS = {320, 480, 640, 960, 1280};
+
+    private final Map<String, Variants> variantsPerGraph = new ConcurrentHashMap<>();
+
+    /**
+     * Scales the image down to every variant width below its own width. Each variant is scaled from the next larger
+     * one, which is at most twice as wide.
+     *
+     * @return the PNG content of each variant, by width
+     */
+    static Map<Integer, byte[]> createVariants(BufferedImage image, PngEncoder encoder) throws IOException {
+        Map<Integer, byte[]> variants = new LinkedHashMap<>();
+        BufferedImage source = image;
+        for (int i = VARIANT_WIDTHS.length - 1; i >= 0; i--) {
+            int width = VARIANT_WIDTHS[i];
+            if (width >= image.getWidth()) {
+                continue;
+            }
+            int height = Math.max(1, Math.round((float) image.getHeight() * width / image.getWidth()));
+            source = ImageScaler.scale(source, width, height);
+            variants.put(width, encoder.encode(source));
+        }
+        return variants;
+    }
+
+    /**
+     * Stores the variants of a newly published image, replacing those of the previous image of the graph.
+     */
+    void put(PublishedImage image, Map<Integer, byte[]> variants) {
+        Map<Integer, PublishedImage> images = new HashMap<>();
+        variants.forEach((width, png) -> images.put(width, PublishedImage.create(image.getGraphId(), png,
+                DigestUtils.sha1Hex(png), image.getLastModified(), image.getVersion())));
+        variantsPerGraph.put(image.getGraphId(), new Variants(image.getVersion(), images));
+    }
+
+    /**
+     * @return true if variants are stored for the given image
+     */
+    boolean has(PublishedImage image) {
+        Variants variants = variantsPerGraph.get(image.getGraphId());
+        return variants != null && variants.version == image.getVersion() && !variants.images.isEmpty();
+    }
+
+    /**
+     * @return the variant of the image for the given width, or the image itself if it is not wider than the
+     * variant width for the requested width, or if it has no variants
+     */
+    public PublishedImage get(PublishedImage image, int requestedWidth) {
+        int width = variantWidth(requestedWidth);
+        if (width <= 0 || image.getWidth() <= width) {
+            return image;
+        }
+        Variants variants = variantsPerGraph.get(image.getGraphId());
+        if (variants == null || variants.version != image.getVersion()) {
+            return image;
+        }
+        return variants.images.getOrDefault(width, image);
+    }
+
+    /**
+     * @return the smallest variant width that is at least the requested width, or -1 if there is none
+     */
+    static int variantWidth(int requestedWidth) {
+        for (int width : VARIANT_WIDTHS) {
+            if (width >= requestedWidth) {
+                return width;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The variants of one version of the image of a graph.
+     */
+    private static class Variants {
+        private final long version;
+        private final Map<Integer, PublishedImage> images;
+
+        private Variants(long version, Map<Integer, PublishedImage> images) {
+            this.version = version;
+            this.images = Collections.unmodifiableMap(images);
+        }
+    }
+
+}
@@ -0,0 +1,423 @@
+package nl.revolution.watchboard.images;
+
+import nl.revolution.watchboard.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PNG encoder for graph images. Graphs mostly consist of a handful of colors, so images are written as 8-bit
+ * palette images whenever possible. Images with more than 256 colors (anti-aliasing, gradients) are either
+ * quantized to a palette of the 256 most common colors, or written as truecolor images when quantization is
+ * disabled.
+ */
+class PngEncoder {
+
+    enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(PngEncoder.class);
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int MAX_PALETTE_SIZE = 256;
+    private static final int COLOR_TYPE_TRUECOLOR = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_TRUECOLOR_ALPHA = 6;
+
+    // Quantization buckets: 2 bits of alpha and 5 bits per color channel.
+    private static final int BUCKET_COUNT = 1 << 17;
+
+    private final int compressionLevel;
+    private final Filter filter;
+    private final boolean quantize;
+
+    /**
+     * @param filter the row filter to use, or null to use no filtering for palette images and adaptive filtering for
+     *               truecolor images
+     */
+    PngEncoder(int compressionLevel, Filter filter, boolean quantize) {
+        this.compressionLevel = compressionLevel;
+        this.filter = filter;
+        this.quantize = quantize;
+    }
+
+    /**
+     * Creates an encoder with the images.png.* settings from the config.
+     */
+    static PngEncoder fromConfig() {
+        Config config = Config.getInstance();
+        int compressionLevel = config.getInt(Config.IMAGES_PNG_COMPRESSION_LEVEL);
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+        }
+
+        Filter filter = null;
+        String filterName = config.getString(Config.IMAGES_PNG_FILTER);
+        if (filterName != null) {
+            try {
+                filter = Filter.valueOf(filterName.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Unknown PNG filter '{}', using default filtering.", filterName);
+            }
+        }
+
+        return new PngEncoder(compressionLevel, filter, config.getBoolean(Config.IMAGES_PNG_QUANTIZE, true));
+    }
+
+    byte[] encode(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        Palette palette = createExactPalette(pixels);
+        if (palette == null && quantize) {
+            palette = createQuantizedPalette(pixels);
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(SIGNATURE);
+        if (palette != null) {
+            writeHeader(out, width, height, COLOR_TYPE_INDEXED);
+            writePalette(out, palette);
+            writeImageData(out, toIndexedRows(pixels, width, height, palette), height, 1,
+                    filter == null ? Filter.NONE : filter);
+        } else {
+            boolean opaque = isOpaque(pixels);
+            writeHeader(out, width, height, opaque ? COLOR_TYPE_TRUECOLOR : COLOR_TYPE_TRUECOLOR_ALPHA);
+            int bytesPerPixel = opaque ? 3 : 4;
+            writeImageData(out, toTruecolorRows(pixels, width, height, bytesPerPixel), height, bytesPerPixel,
+                    filter == null ? Filter.ADAPTIVE : filter);
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    /**
+     * @return a palette containing exactly the colors of the image, or null if it has more than 256 colors
+     */
+    private Palette createExactPalette(int[] pixels) {
+        ColorTable indexes = new ColorTable();
+        int previous = 0;
+        boolean first = true;
+        for (int pixel : pixels) {
+            // Graphs have long runs of the same color, which don't need a map lookup.
+            if (!first && pixel == previous) {
+                continue;
+            }
+            first = false;
+            previous = pixel;
+            if (indexes.indexOf(pixel) < 0) {
+                if (indexes.size == MAX_PALETTE_SIZE) {
+                    return null;
+                }
+                indexes.add(pixel);
+            }
+        }
+
+        return new Palette(Arrays.copyOf(indexes.colors, indexes.size), indexes::indexOf);
+    }
+
+    /**
+     * Reduces the image to the 256 most common colors, after grouping similar colors into buckets. Pixels in the
+     * remaining buckets are mapped to the nearest palette color.
+     */
+    private Palette createQuantizedPalette(int[] pixels) {
+        int[] counts = new int[BUCKET_COUNT];
+        long[] sums = new long[BUCKET_COUNT * 4];
+        for (int pixel : pixels) {
+            int bucket = bucket(pixel);
+            counts[bucket]++;
+            sums[bucket * 4] += pixel >>> 24;
+            sums[bucket * 4 + 1] += (pixel >> 16) & 0xff;
+            sums[bucket * 4 + 2] += (pixel >> 8) & 0xff;
+            sums[bucket * 4 + 3] += pixel & 0xff;
+        }
+
+        List<Integer> usedBuckets = new ArrayList<>();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (counts[bucket] > 0) {
+                usedBuckets.add(bucket);
+            }
+        }
+        usedBuckets.sort((bucket1, bucket2) -> Integer.compare(counts[bucket2], counts[bucket1]));
+
+        int[] colors = new int[Math.min(MAX_PALETTE_SIZE, usedBuckets.size())];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = bucketColor(usedBuckets.get(i), counts, sums);
+        }
+
+        int[] bucketIndexes = new int[BUCKET_COUNT];
+        for (int i = 0; i < usedBuckets.size(); i++) {
+            int bucket = usedBuckets.get(i);
+            bucketIndexes[bucket] = i < colors.length ? i : nearestColor(colors, bucketColor(bucket, counts, sums));
+        }
+        return new Palette(colors, pixel -> bucketIndexes[bucket(pixel)]);
+    }
+
+    private static int bucket(int pixel) {
+        return (pixel >>> 30) << 15 | ((pixel >> 19) & 0x1f) << 10 | ((pixel >> 11) & 0x1f) << 5 | ((pixel >> 3) & 0x1f);
+    }
+
+    private static int bucketColor(int bucket, int[] counts, long[] sums) {
+        int count = counts[bucket];
+        return (int) (sums[bucket * 4] / count) << 24
+                | (int) (sums[bucket * 4 + 1] / count) << 16
+                | (int) (sums[bucket * 4 + 2] / count) << 8
+                | (int) (sums[bucket * 4 + 3] / count);
+    }
+
+    private static int nearestColor(int[] colors, int color) {
+        int nearest = 0;
+        long nearestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            long distance = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((colors[i] >>> shift) & 0xff) - ((color >>> shift) & 0xff);
+                distance += difference * difference;
+            }
+            if (distance < nearestDistance) {
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private static boolean isOpaque(int[] pixels) {
+        for (int pixel : pixels) {
+            if (pixel >>> 24 != 0xff) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] toIndexedRows(int[] pixels, int width, int height, Palette palette) {
+        byte[][] rows = new byte[height][width];
+        int previous = 0;
+        int previousIndex = -1;
+        for (int y = 0; y < height; y++) {
+            byte[] row = rows[y];
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                if (previousIndex < 0 || pixel != previous) {
+                    previous = pixel;
+                    previousIndex = palette.indexOf(pixel);
+                }
+                row[x] = (byte) previousIndex;
+            }
+        }
+        return rows;
+    }
+
+    private static byte[][] toTruecolorRows(int[] pixels, int width, int height, int bytesPerPixel) {
+        byte[][] rows = new byte[height][width * bytesPerPixel];
+        for (int y = 0; y < height; y++) {
+            byte[] row = rows[y];
+            for (int x = 0; x < width; x++) {
+                int pixel = pixels[y * width + x];
+                int offset = x * bytesPerPixel;
+                row[offset] = (byte) (pixel >> 16);
+                row[offset + 1] = (byte) (pixel >> 8);
+                row[offset + 2] = (byte) pixel;
+                if (bytesPerPixel == 4) {
+                    row[offset + 3] = (byte) (pixel >>> 24);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void writeHeader(DataOutputStream out, int width, int height, int colorType) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.writeByte(8); // bit depth
+        headerOut.writeByte(colorType);
+        headerOut.writeByte(0); // compression method
+        headerOut.writeByte(0); // filter method
+        headerOut.writeByte(0); // no interlacing
+        writeChunk(out, "IHDR", header.toByteArray());
+    }
+
+    private void writePalette(DataOutputStream out, Palette palette) throws IOException {
+        int[] colors = palette.colors;
+        byte[] rgb = new byte[colors.length * 3];
+        byte[] alpha = new byte[colors.length];
+        boolean transparent = false;
+        for (int i = 0; i < colors.length; i++) {
+            rgb[i * 3] = (byte) (colors[i] >> 16);
+            rgb[i * 3 + 1] = (byte) (colors[i] >> 8);
+            rgb[i * 3 + 2] = (byte) colors[i];
+            alpha[i] = (byte) (colors[i] >>> 24);
+            transparent |= colors[i] >>> 24 != 0xff;
+        }
+        writeChunk(out, "PLTE", rgb);
+        if (transparent) {
+            writeChunk(out, "tRNS", alpha);
+        }
+    }
+
+    private void writeImageData(DataOutputStream out, byte[][] rows, int height, int bytesPerPixel,
+                                Filter rowFilter) throws IOException {
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(compressionLevel);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(imageData, deflater, 8192)) {
+            byte[] emptyRow = new byte[rows.length == 0 ? 0 : rows[0].length];
+            byte[][] candidates = new byte[Filter.ADAPTIVE.ordinal()][emptyRow.length];
+            for (int y = 0; y < height; y++) {
+                byte[] previousRow = y == 0 ? emptyRow : rows[y - 1];
+                int filterType = rowFilter == Filter.ADAPTIVE
+                        ? filterAdaptive(rows[y], previousRow, bytesPerPixel, candidates)
+                        : filterRow(rowFilter.ordinal(), rows[y], previousRow, bytesPerPixel, candidates[rowFilter.ordinal()]);
+                deflaterOut.write(filterType);
+                deflaterOut.write(candidates[filterType]);
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IDAT", imageData.toByteArray());
+    }
+
+    /**
+     * Applies all filters and picks the one with the lowest sum of absolute differences, which is the heuristic
+     * recommended by the PNG specification.
+     */
+    private static int filterAdaptive(byte[] row, byte[] previousRow, int bytesPerPixel, byte[][] candidates) {
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int filterType = 0; filterType < candidates.length; filterType++) {
+            filterRow(filterType, row, previousRow, bytesPerPixel, candidates[filterType]);
+            long sum = 0;
+            for (byte value : candidates[filterType]) {
+                sum += Math.abs(value);
+            }
+            if (sum < bestSum) {
+                best = filterType;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    private static int filterRow(int filterType, byte[] row, byte[] previousRow, int bytesPerPixel, byte[] filtered) {
+        for (int i = 0; i < row.length; i++) {
+            int current = row[i] & 0xff;
+            int left = i >= bytesPerPixel ? row[i - bytesPerPixel] & 0xff : 0;
+            int up = previousRow[i] & 0xff;
+            int upLeft = i >= bytesPerPixel ? previousRow[i - bytesPerPixel] & 0xff : 0;
+            switch (filterType) {
+                case 1:
+                    filtered[i] = (byte) (current - left);
+                    break;
+                case 2:
+                    filtered[i] = (byte) (current - up);
+                    break;
+                case 3:
+                    filtered[i] = (byte) (current - ((left + up) >> 1));
+                    break;
+                case 4:
+                    filtered[i] = (byte) (current - paethPredictor(left, up, upLeft));
+                    break;
+                default:
+                    filtered[i] = (byte) current;
+            }
+        }
+        return filterType;
+    }
+
+    private static int paethPredictor(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Open addressing map from color to palette index, so looking up pixels doesn't box them.
+     */
+    private static class ColorTable {
+        // Twice the palette size, so probe sequences stay short.
+        private static final int SLOT_BITS = 9;
+
+        private final int[] slotColors = new int[1 << SLOT_BITS];
+        private final int[] slotIndexes = new int[1 << SLOT_BITS];
+        private final int[] colors = new int[MAX_PALETTE_SIZE];
+        private int size;
+
+        private ColorTable() {
+            Arrays.fill(slotIndexes, -1);
+        }
+
+        /**
+         * @return the palette index of the color, or -1 if it isn't in the table
+         */
+        private int indexOf(int color) {
+            for (int slot = slot(color); ; slot = (slot + 1) & (slotIndexes.length - 1)) {
+                if (slotIndexes[slot] < 0 || slotColors[slot] == color) {
+                    return slotIndexes[slot];
+                }
+            }
+        }
+
+        private void add(int color) {
+            int slot = slot(color);
+            while (slotIndexes[slot] >= 0) {
+                slot = (slot + 1) & (slotIndexes.length - 1);
+            }
+            slotColors[slot] = color;
+            slotIndexes[slot] = size;
+            colors[size++] = color;
+        }
+
+        private static int slot(int color) {
+            return (color * 0x9E3779B9) >>> (32 - SLOT_BITS);
+        }
+    }
+
+    private static class Palette {
+        private final int[] colors;
+        private final IntUnaryOperator colorIndex;
+
+        private Palette(int[] colors, IntUnaryOperator colorIndex) {
+            this.colors = colors;
+            this.colorIndex = colorIndex;
+        }
+
+        private int indexOf(int pixel) {
+            return colorIndex.applyAsInt(pixel);
+        }
+    }
+
+}
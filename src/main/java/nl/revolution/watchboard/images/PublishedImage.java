@@ -0,0 +1,85 @@
+package nl.revolution.watchboard.images;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The most recently published image of a graph.
+ */
+public class PublishedImage {
+
+    private final String graphId;
+    private final long lastModified;
+    private final long size;
+    private final String contentHash;
+    private final long version;
+    private final int width;
+    private final ByteBuffer content;
+
+    public PublishedImage(String graphId, long lastModified, long size, String contentHash, long version, int width,
+                          ByteBuffer content) {
+        this.graphId = graphId;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.version = version;
+        this.width = width;
+        this.content = content;
+    }
+
+    /**
+     * Copies the given PNG content into a direct buffer and creates an image for it.
+     */
+    static PublishedImage create(String graphId, byte[] content, String contentHash, long lastModified, long version) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content).flip();
+        return new PublishedImage(graphId, lastModified, content.length, contentHash, version,
+                readPngWidth(content), buffer.asReadOnlyBuffer());
+    }
+
+    /**
+     * Reads the width from the IHDR chunk, which directly follows the 8 byte PNG signature.
+     *
+     * @return the width in pixels, or 0 if the content is not a PNG image
+     */
+    private static int readPngWidth(byte[] content) {
+        if (content.length < 24 || content[12] != 'I' || content[13] != 'H' || content[14] != 'D' || content[15] != 'R') {
+            return 0;
+        }
+        return ByteBuffer.wrap(content, 16, 4).getInt();
+    }
+
+    public String getGraphId() {
+        return graphId;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the width of the image in pixels, or 0 if unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return a read-only view on the image content, positioned at the start of the image
+     */
+    public ByteBuffer getContent() {
+        return content.duplicate();
+    }
+
+}
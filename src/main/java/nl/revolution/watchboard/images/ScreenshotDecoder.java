@@ -0,0 +1,96 @@
+package nl.revolution.watchboard.images;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Decodes only the element region of a full page PNG screenshot, instead of the entire page.
+ *
+ * The decoded pixels are written into a raster that is reused by the decoding thread, so a capture cycle doesn't
+ * allocate a page sized image for every graph. Because of that, the decoded image is only handed to a callback, and
+ * must not be used after the callback returns.
+ */
+class ScreenshotDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScreenshotDecoder.class);
+
+    private static final ThreadLocal<BufferedImage> pooledDestination = new ThreadLocal<>();
+
+    private ScreenshotDecoder() {
+        // Utility class.
+    }
+
+    /**
+     * Receives a decoded region. Copy the image if it is needed after returning.
+     */
+    interface RegionConsumer {
+        void accept(BufferedImage region) throws IOException;
+    }
+
+    static void decodeRegion(byte[] screenshot, Rectangle elementBounds, RegionConsumer consumer) throws IOException {
+        // Taken from the pool while in use, so a nested call on the same thread gets an image of its own.
+        BufferedImage destination = pooledDestination.get();
+        pooledDestination.remove();
+        ImageReader reader = ImageIO.getImageReadersByFormatName("png").next();
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(screenshot))) {
+            reader.setInput(input, true, true);
+            Rectangle region = clip(elementBounds, reader.getWidth(0), reader.getHeight(0));
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            destination = getDestination(destination, reader.getImageTypes(0).next(), region);
+            param.setDestination(destination);
+            consumer.accept(reader.read(0, param).getSubimage(0, 0, region.width, region.height));
+        } finally {
+            reader.dispose();
+            if (destination != null) {
+                pooledDestination.set(destination);
+            }
+        }
+    }
+
+    private static Rectangle clip(Rectangle elementBounds, int imageWidth, int imageHeight) {
+        int subImageWidth = Math.min(elementBounds.width, imageWidth - elementBounds.x);
+        int subImageHeight = Math.min(elementBounds.height, imageHeight - elementBounds.y);
+
+        if (subImageWidth != elementBounds.width) {
+            LOG.warn("Image will be cropped horizontally: expected {} px, but will be {} px", elementBounds.width, subImageWidth);
+        }
+
+        if (subImageHeight != elementBounds.height) {
+            LOG.warn("Image will be cropped vertically: expected {} px, but will be {} px", elementBounds.height, subImageHeight);
+        }
+
+        return new Rectangle(elementBounds.x, elementBounds.y, subImageWidth, subImageHeight);
+    }
+
+    /**
+     * Returns the pooled image if it has the right pixel layout and is large enough, or a new one that is.
+     */
+    private static BufferedImage getDestination(BufferedImage destination, ImageTypeSpecifier imageType,
+                                                Rectangle region) {
+        if (destination != null
+                && destination.getWidth() >= region.width
+                && destination.getHeight() >= region.height
+                && destination.getColorModel().equals(imageType.getColorModel())
+                && destination.getSampleModel().getClass() == imageType.getSampleModel().getClass()
+                && destination.getSampleModel().getNumBands() == imageType.getSampleModel().getNumBands()) {
+            return destination;
+        }
+
+        int width = Math.max(region.width, destination == null ? 0 : destination.getWidth());
+        int height = Math.max(region.height, destination == null ? 0 : destination.getHeight());
+        return imageType.createBufferedImage(width, height);
+    }
+
+}
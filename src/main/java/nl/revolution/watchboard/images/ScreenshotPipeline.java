@@ -0,0 +1,211 @@
+package nl.revolution.watchboard.images;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.GraphChangeTracker;
+import nl.revolution.watchboard.data.GraphOutputSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes, crops, encodes and publishes screenshots on a small pool of worker threads, so the browser can start
+ * loading the next graph while the previous screenshot is being processed. The downscaled variants of each image
+ * are created here as well, so image requests never have to scale.
+ *
+ * The queue is bounded; when it is full, the capturing thread processes the screenshot itself.
+ *
+ * Images are encoded by {@link PngEncoder}, which can be tuned with the images.png.* settings in the config.
+ */
+public class ScreenshotPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScreenshotPipeline.class);
+    private static final int WORKER_THREADS = 2;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int REFERENCE_SAMPLE_INTERVAL = 20;
+
+    private static final ScreenshotPipeline instance = new ScreenshotPipeline();
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong captureSequence = new AtomicLong();
+    private final Map<String, Long> latestCaptures = new ConcurrentHashMap<>();
+    private final Map<String, EncodingStats> encodingStats = new ConcurrentHashMap<>();
+    private final Map<String, ImageSignature> publishedSignatures = new ConcurrentHashMap<>();
+
+    public static ScreenshotPipeline getInstance() {
+        return instance;
+    }
+
+    private ScreenshotPipeline() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "screenshot-pipeline-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Queues a full page screenshot for cropping to the given element bounds and publishing.
+     */
+    public void submit(String graphId, byte[] screenshot, Rectangle elementBounds) {
+        submit(screenshot, Collections.singletonMap(graphId, elementBounds));
+    }
+
+    /**
+     * Queues a full page screenshot that shows several graphs, for cropping to the bounds of each of them and
+     * publishing. The screenshot is decoded only once.
+     */
+    public void submit(byte[] screenshot, Map<String, Rectangle> boundsPerGraph) {
+        Map<String, Long> captures = new LinkedHashMap<>();
+        boundsPerGraph.keySet().forEach(graphId -> {
+            long capture = captureSequence.incrementAndGet();
+            latestCaptures.put(graphId, capture);
+            captures.put(graphId, capture);
+        });
+        executor.execute(() -> process(screenshot, boundsPerGraph, captures));
+    }
+
+    private void process(byte[] screenshot, Map<String, Rectangle> boundsPerGraph, Map<String, Long> captures) {
+        Rectangle decodedBounds = null;
+        for (Map.Entry<String, Long> capture : captures.entrySet()) {
+            if (!isSuperseded(capture.getKey(), capture.getValue())) {
+                Rectangle bounds = boundsPerGraph.get(capture.getKey());
+                decodedBounds = decodedBounds == null ? new Rectangle(bounds) : decodedBounds.union(bounds);
+            }
+        }
+        if (decodedBounds == null) {
+            return;
+        }
+
+        Rectangle unionBounds = decodedBounds;
+        try {
+            ScreenshotDecoder.decodeRegion(screenshot, unionBounds,
+                    decoded -> publishAll(decoded, unionBounds, boundsPerGraph, captures));
+        } catch (Exception e) {
+            LOG.error("Error while decoding screenshot for " + captures.keySet() + ":", e);
+        }
+    }
+
+    /**
+     * Crops and publishes each graph from the decoded region. The decoded image is pooled, so it is only used until
+     * this method returns.
+     */
+    private void publishAll(BufferedImage decoded, Rectangle decodedBounds, Map<String, Rectangle> boundsPerGraph,
+                            Map<String, Long> captures) {
+        for (Map.Entry<String, Long> capture : captures.entrySet()) {
+            String graphId = capture.getKey();
+            if (isSuperseded(graphId, capture.getValue())) {
+                continue;
+            }
+            Rectangle bounds = boundsPerGraph.get(graphId);
+            int x = bounds.x - decodedBounds.x;
+            int y = bounds.y - decodedBounds.y;
+            int width = Math.min(bounds.width, decoded.getWidth() - x);
+            int height = Math.min(bounds.height, decoded.getHeight() - y);
+            if (width <= 0 || height <= 0) {
+                LOG.warn("Skipping {}: it is outside of the screenshot.", graphId);
+                continue;
+            }
+            publish(graphId, capture.getValue(), decoded.getSubimage(x, y, width, height));
+        }
+    }
+
+    private void publish(String graphId, long capture, BufferedImage image) {
+        try {
+            if (isSuperseded(graphId, capture)) {
+                return;
+            }
+
+            // Don't make every client download an image that looks the same as the one it has.
+            ImageSignature signature = ImageSignature.of(image);
+            double difference = signature.difference(publishedSignatures.get(graphId));
+            List<GraphOutputSize> outputSizes = Config.getInstance().getOutputSizes(graphId);
+            if (difference <= Config.getInstance().getDouble(Config.IMAGES_CHANGE_TOLERANCE, 0)
+                    && isPublished(graphId)
+                    && outputSizes.stream().allMatch(outputSize -> isPublished(outputSize.getId()))) {
+                encodingStats.computeIfAbsent(graphId, EncodingStats::new).recordSuppressed();
+                GraphChangeTracker.getInstance().recordPublish(graphId, false);
+                LOG.info("Skipping publish of {}: image is unchanged ({}% of blocks differ).", graphId,
+                        Math.round(difference * 1000) / 10.0);
+                return;
+            }
+
+            byte[] png = encode(graphId, image);
+            Map<Integer, byte[]> variants = ImageVariantCache.createVariants(image, PngEncoder.fromConfig());
+
+            // Never replace the image of a newer capture that was processed in parallel.
+            if (isSuperseded(graphId, capture)) {
+                LOG.debug("Skipping publish of {}: a newer screenshot was captured.", graphId);
+                return;
+            }
+            publishWithAliases(graphId, png, variants);
+            // Smaller sizes of the graph are scaled down from this capture instead of being rendered themselves.
+            for (GraphOutputSize outputSize : outputSizes) {
+                BufferedImage scaled = ImageScaler.fit(image, outputSize.getWidth(), outputSize.getHeight());
+                publishWithAliases(outputSize.getId(), encode(outputSize.getId(), scaled),
+                        ImageVariantCache.createVariants(scaled, PngEncoder.fromConfig()));
+            }
+            publishedSignatures.put(graphId, signature);
+            LOG.info("Updated {}.", graphId);
+        } catch (Exception e) {
+            LOG.error("Error while processing screenshot for " + graphId + ":", e);
+        }
+    }
+
+    /**
+     * Publishes an image with its variants, and the same for all graphs that show the same.
+     */
+    private void publishWithAliases(String imageId, byte[] png, Map<Integer, byte[]> variants) {
+        ImageRegistry.getInstance().publish(imageId, png, variants);
+        Config.getInstance().getImageAliases(imageId)
+                .forEach(alias -> ImageRegistry.getInstance().publish(alias, png, variants));
+    }
+
+    private boolean isPublished(String imageId) {
+        return ImageRegistry.getInstance().get(imageId) != null
+                && Config.getInstance().getImageAliases(imageId).stream()
+                        .allMatch(alias -> ImageRegistry.getInstance().get(alias) != null);
+    }
+
+    private boolean isSuperseded(String graphId, long capture) {
+        return latestCaptures.get(graphId) != capture;
+    }
+
+    private byte[] encode(String graphId, BufferedImage image) throws IOException {
+        EncodingStats stats = encodingStats.computeIfAbsent(graphId, EncodingStats::new);
+        if (stats.getEncodeCount() % REFERENCE_SAMPLE_INTERVAL == 0) {
+            ByteArrayOutputStream reference = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", reference);
+            stats.recordReference(reference.size());
+        }
+
+        long start = System.currentTimeMillis();
+        byte[] png = PngEncoder.fromConfig().encode(image);
+        stats.recordEncode(png.length, System.currentTimeMillis() - start);
+        return png;
+    }
+
+    public Collection<EncodingStats> getEncodingStats() {
+        return encodingStats.values();
+    }
+
+}
@@ -0,0 +1,100 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs browsers in to identity providers. Plugins that use the same login URL and username (like the two CloudWatch
+ * plugins) share an identity: a browser logs in to it once, and all of its plugins use that session.
+ *
+ * Logins to the same identity are done one at a time. A browser that waited while another browser logged in
+ * continues that browser's saved session instead of logging in again.
+ */
+public class AuthSessionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuthSessionManager.class);
+
+    private static final AuthSessionManager INSTANCE = new AuthSessionManager();
+
+    private final Map<String, Identity> identities = new ConcurrentHashMap<>();
+    private final AtomicLong sharedLogins = new AtomicLong();
+    private final AtomicLong dedupedLogins = new AtomicLong();
+
+    private AuthSessionManager() {
+    }
+
+    public static AuthSessionManager getInstance() {
+        return INSTANCE;
+    }
+
+    static String identityKey(Plugin pluginConfig) {
+        return pluginConfig.getLoginUrl() + "|" + pluginConfig.getUsername();
+    }
+
+    /**
+     * Counts a plugin that didn't need to log in because its browser was already logged in to its identity.
+     */
+    void recordSharedLogin(Plugin pluginConfig) {
+        sharedLogins.incrementAndGet();
+        LOG.info("Plugin {} shares an existing login to {}.", pluginConfig.getType(), pluginConfig.getLoginUrl());
+    }
+
+    /**
+     * Logs the browser in to the identity of the given plugin. Continues a saved session if it is still valid, and
+     * only performs a full login otherwise.
+     */
+    void logIn(WatchboardPlugin plugin, Plugin pluginConfig, WebDriverWrapper wrappedDriver) {
+        SessionCache sessionCache = SessionCache.getInstance();
+        Identity identity = identities.computeIfAbsent(identityKey(pluginConfig), key -> new Identity());
+        long generationBeforeWaiting = identity.generation;
+        long start = System.currentTimeMillis();
+
+        synchronized (identity) {
+            boolean restored = sessionCache.restore(pluginConfig, wrappedDriver);
+            if (restored && identity.generation != generationBeforeWaiting) {
+                // Another browser logged in while this one waited; its session is fresh.
+                dedupedLogins.incrementAndGet();
+                LOG.info("Continued login of another browser for " + plugin.getGraphType() + " after waiting "
+                        + (System.currentTimeMillis() - start) + " ms.");
+                return;
+            }
+
+            if (restored) {
+                boolean valid = plugin.hasValidSession();
+                sessionCache.recordProbe(valid);
+                if (valid) {
+                    LOG.info("Continued saved session of " + plugin.getGraphType() + " in " + (System.currentTimeMillis() - start) + " ms.");
+                    return;
+                }
+                LOG.info("Saved session of " + plugin.getGraphType() + " is no longer valid, logging in.");
+                sessionCache.invalidate(pluginConfig);
+            }
+
+            plugin.performLogin();
+            sessionCache.save(pluginConfig, wrappedDriver);
+            identity.generation++;
+            LOG.info("Logged in to " + plugin.getGraphType() + " in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        stats.put("identities", identities.size());
+        stats.put("sharedLogins", sharedLogins.get());
+        stats.put("dedupedLogins", dedupedLogins.get());
+        return stats;
+    }
+
+    private static class Identity {
+        // Number of full logins; written while holding the identity's lock.
+        private volatile long generation;
+    }
+
+}
@@ -0,0 +1,124 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A pool of browsers that take their work from one shared schedule. The pool starts with the minimum number of
+ * browsers and adds browsers (up to the maximum) while graphs are overdue. Browsers that have been idle for a while
+ * are shut down again, until the minimum is reached.
+ */
+public class BrowserPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrowserPool.class);
+    private static final long CONFIG_CHECK_INTERVAL_MS = 10 * 1000;
+    private static final long SCALE_UP_OVERDUE_MS = 10 * 1000;
+    // Starting a browser and logging in takes a while; give a new browser time to catch up before adding another.
+    private static final long SCALE_UP_COOLDOWN_MS = 60 * 1000;
+
+    private final int minSize;
+    private final int maxSize;
+    private final Collection<Graph.Type> types;
+    private final GraphUpdateScheduler scheduler;
+    private final List<PluginUpdateThread> workers = new ArrayList<>();
+    private final Object configCheckLock = new Object();
+    private int workerSequence;
+    private long lastScaleUpTimestamp;
+    private long lastConfigCheckTimestamp;
+    private boolean stopped;
+
+    public BrowserPool(int minSize, int maxSize, Collection<Graph.Type> types, GraphUpdateScheduler scheduler) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.types = types;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void start() {
+        LOG.info("Starting browser pool with {} to {} browsers for plugin types {}.", minSize, maxSize, types);
+        scheduler.synchronize(types, System.currentTimeMillis());
+        for (int i = 0; i < minSize; i++) {
+            addWorker();
+        }
+    }
+
+    public void stop() {
+        List<PluginUpdateThread> stoppedWorkers;
+        synchronized (this) {
+            stopped = true;
+            stoppedWorkers = new ArrayList<>(workers);
+        }
+        scheduler.stop();
+        stoppedWorkers.forEach(PluginUpdateThread::doStop);
+        for (PluginUpdateThread worker : stoppedWorkers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                LOG.error("Error stopping browser pool: ", e);
+            }
+        }
+    }
+
+    /**
+     * Checks for config updates at most once per interval for the whole pool, and updates the schedule accordingly.
+     */
+    void checkForConfigUpdate() {
+        synchronized (configCheckLock) {
+            long now = System.currentTimeMillis();
+            if (now - lastConfigCheckTimestamp < CONFIG_CHECK_INTERVAL_MS) {
+                return;
+            }
+            lastConfigCheckTimestamp = now;
+            Config.getInstance().checkForConfigUpdate();
+            scheduler.synchronize(types, now);
+        }
+    }
+
+    /**
+     * Adds a browser if graphs are still overdue after a browser took its next graph.
+     */
+    synchronized void checkScaleUp() {
+        long now = System.currentTimeMillis();
+        if (stopped || workers.size() >= maxSize || now - lastScaleUpTimestamp < SCALE_UP_COOLDOWN_MS) {
+            return;
+        }
+        long overdueMillis = scheduler.getMaxOverdueMillis(now);
+        if (overdueMillis > SCALE_UP_OVERDUE_MS) {
+            LOG.info("Graphs are {} ms overdue, adding a browser to the pool ({} running).", overdueMillis, workers.size());
+            addWorker();
+        }
+    }
+
+    /**
+     * @return true if the idle browser may shut down, false if it is needed to keep the minimum pool size
+     */
+    synchronized boolean retire(PluginUpdateThread worker) {
+        if (stopped || workers.size() <= minSize) {
+            return false;
+        }
+        workers.remove(worker);
+        LOG.info("Removed idle browser {} from the pool ({} running).", worker.getName(), workers.size());
+        return true;
+    }
+
+    synchronized void workerStopped(PluginUpdateThread worker) {
+        if (workers.remove(worker) && !stopped && workers.size() < minSize) {
+            LOG.warn("Browser {} stopped unexpectedly, replacing it.", worker.getName());
+            addWorker();
+        }
+    }
+
+    private void addWorker() {
+        PluginUpdateThread worker = new PluginUpdateThread("browser-" + ++workerSequence, this, scheduler);
+        workers.add(worker);
+        lastScaleUpTimestamp = System.currentTimeMillis();
+        worker.start();
+    }
+
+}
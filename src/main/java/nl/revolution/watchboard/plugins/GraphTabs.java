@@ -0,0 +1,135 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The browser windows of a single browser in which graphs stay loaded between updates, one per graph. A graph
+ * that has a window can be refreshed in place instead of being navigated to from scratch. The first window of the
+ * browser is kept for logging in. When there are more graphs than allowed windows, the least recently updated
+ * graph loses its window.
+ *
+ * Only used by the thread of the browser that owns it.
+ */
+class GraphTabs {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphTabs.class);
+
+    private final int maxTabs;
+    // Least recently used first.
+    private final LinkedHashMap<String, Tab> tabs = new LinkedHashMap<>(16, 0.75f, true);
+    private String mainWindow;
+
+    GraphTabs(int maxTabs) {
+        this.maxTabs = Math.max(1, maxTabs);
+    }
+
+    boolean has(String graphId) {
+        return tabs.containsKey(graphId);
+    }
+
+    int getMaxTabs() {
+        return maxTabs;
+    }
+
+    /**
+     * Switches to the window of the given graph, opening a new one if it doesn't have one yet.
+     *
+     * @return true if the graph already had a window, in which its page is still loaded
+     */
+    boolean switchTo(WebDriver driver, String graphId, Graph.Type type) {
+        Tab tab = tabs.get(graphId);
+        if (tab != null) {
+            driver.switchTo().window(tab.handle);
+            return true;
+        }
+
+        rememberMainWindow(driver);
+        while (tabs.size() >= maxTabs) {
+            close(driver, tabs.keySet().iterator().next());
+        }
+        Set<String> existingHandles = new HashSet<>(driver.getWindowHandles());
+        ((JavascriptExecutor) driver).executeScript("window.open('about:blank');");
+        Set<String> newHandles = new HashSet<>(driver.getWindowHandles());
+        newHandles.removeAll(existingHandles);
+        if (newHandles.isEmpty()) {
+            throw new RuntimeException("Could not open a window for graph " + graphId + ".");
+        }
+        String handle = newHandles.iterator().next();
+        driver.switchTo().window(handle);
+        tabs.put(graphId, new Tab(handle, type));
+        LOG.debug("Opened window for {} ({} windows).", graphId, tabs.size());
+        return false;
+    }
+
+    /**
+     * Switches to the first window of the browser, for example to log in without navigating a graph away.
+     */
+    void switchToMain(WebDriver driver) {
+        if (mainWindow != null) {
+            driver.switchTo().window(mainWindow);
+        }
+    }
+
+    /**
+     * Closes the window of the given graph, if it has one, and switches to the first window.
+     */
+    void close(WebDriver driver, String graphId) {
+        Tab tab = tabs.remove(graphId);
+        if (tab == null) {
+            return;
+        }
+        try {
+            driver.switchTo().window(tab.handle);
+            driver.close();
+        } catch (Exception e) {
+            LOG.warn("Error while closing window of graph " + graphId + ": " + e.getMessage());
+        }
+        switchToMain(driver);
+    }
+
+    /**
+     * Closes the windows of all graphs of the given type.
+     */
+    void closeAll(WebDriver driver, Graph.Type type) {
+        for (Map.Entry<String, Tab> entry : new ArrayList<>(tabs.entrySet())) {
+            if (entry.getValue().type == type) {
+                close(driver, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Forgets all windows, for when the browser was restarted.
+     */
+    void clear() {
+        tabs.clear();
+        mainWindow = null;
+    }
+
+    private void rememberMainWindow(WebDriver driver) {
+        if (mainWindow == null) {
+            mainWindow = driver.getWindowHandle();
+        }
+    }
+
+    private static class Tab {
+        private final String handle;
+        private final Graph.Type type;
+
+        Tab(String handle, Graph.Type type) {
+            this.handle = handle;
+            this.type = type;
+        }
+    }
+
+}
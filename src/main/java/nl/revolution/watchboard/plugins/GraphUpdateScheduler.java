@@ -0,0 +1,236 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which graph the browsers update next. Every graph has a deadline at which its next update is due; the
+ * graph with the earliest deadline (the most overdue one) is updated first. When no graph is due, the update
+ * threads wait until the next deadline instead of reloading graphs back to back.
+ *
+ * The schedule is shared by all browsers. A browser prefers graphs of plugins it is already logged in to, as long
+ * as that doesn't delay the most overdue graph by more than a few seconds.
+ */
+public class GraphUpdateScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphUpdateScheduler.class);
+
+    // How much longer a graph may wait so that a browser can handle a graph it doesn't need to log in for.
+    private static final long AFFINITY_WINDOW_MS = 15 * 1000;
+
+    private final Function<Graph.Type, Collection<Graph>> graphSource;
+    private final ToIntFunction<ScheduledGraph> updateIntervalSource;
+    private final PriorityQueue<ScheduledGraph> queue = new PriorityQueue<>();
+    private final Map<String, ScheduledGraph> scheduledGraphs = new HashMap<>();
+    private long sequence;
+    private boolean stop;
+
+    /**
+     * @param graphSource          provides the graphs of a type that currently have to be kept up to date
+     * @param updateIntervalSource provides the current update interval in seconds of a graph
+     */
+    public GraphUpdateScheduler(Function<Graph.Type, Collection<Graph>> graphSource,
+                                ToIntFunction<ScheduledGraph> updateIntervalSource) {
+        this.graphSource = graphSource;
+        this.updateIntervalSource = updateIntervalSource;
+    }
+
+    /**
+     * Brings the schedule in line with the graphs of the given types. New graphs are due immediately, graphs that
+     * are no longer configured are dropped, and graphs that remain keep their deadline.
+     */
+    public synchronized void synchronize(Collection<Graph.Type> types, long now) {
+        Set<String> removedGraphIds = new HashSet<>(scheduledGraphs.keySet());
+        for (Graph.Type type : types) {
+            for (Graph graph : graphSource.apply(type)) {
+                removedGraphIds.remove(graph.getId());
+                ScheduledGraph scheduledGraph = scheduledGraphs.get(graph.getId());
+                if (scheduledGraph != null) {
+                    // Pick up changed graph settings on the next update.
+                    scheduledGraph.graph = graph;
+                    continue;
+                }
+                scheduledGraph = new ScheduledGraph(type, graph, now, sequence++);
+                scheduledGraphs.put(graph.getId(), scheduledGraph);
+                queue.add(scheduledGraph);
+                LOG.debug("Scheduled {} ({}).", graph.getId(), type);
+            }
+        }
+
+        for (String graphId : removedGraphIds) {
+            queue.remove(scheduledGraphs.remove(graphId));
+            LOG.debug("Unscheduled {}.", graphId);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until a graph is due and takes it from the schedule. It has to be handed back with
+     * {@link #reschedule(ScheduledGraph, long)} once it has been updated.
+     *
+     * @param maxWaitMillis  maximum time to wait for a graph to become due
+     * @param preferredTypes graph types the calling browser is logged in for
+     * @return the graph to update, or null if no graph became due within the given time or the scheduler was
+     * stopped
+     */
+    public synchronized ScheduledGraph awaitNextDue(long maxWaitMillis, Set<Graph.Type> preferredTypes)
+            throws InterruptedException {
+        long waitUntil = System.currentTimeMillis() + maxWaitMillis;
+        while (!stop) {
+            long now = System.currentTimeMillis();
+            ScheduledGraph next = queue.peek();
+            if (next != null && next.deadline <= now) {
+                ScheduledGraph preferred = findPreferred(preferredTypes, Math.min(now, next.deadline + AFFINITY_WINDOW_MS));
+                ScheduledGraph selected = preferred != null ? preferred : next;
+                queue.remove(selected);
+                return selected;
+            }
+
+            long waitMillis = waitUntil - now;
+            if (next != null) {
+                waitMillis = Math.min(waitMillis, next.deadline - now);
+            }
+            if (waitUntil <= now) {
+                return null;
+            }
+            wait(Math.max(1, waitMillis));
+        }
+        return null;
+    }
+
+    /**
+     * Takes graphs that are due from the schedule right away, for updating them together with a graph returned by
+     * {@link #awaitNextDue(long, Set)}. Like that graph, they have to be handed back once they have been updated.
+     *
+     * @param filter   selects the graphs that may be taken
+     * @param maxCount maximum number of graphs to take
+     * @return the due graphs, most overdue first
+     */
+    public synchronized List<ScheduledGraph> takeDue(Predicate<ScheduledGraph> filter, long now, int maxCount) {
+        List<ScheduledGraph> due = queue.stream()
+                .filter(scheduledGraph -> scheduledGraph.deadline <= now && filter.test(scheduledGraph))
+                .sorted()
+                .limit(Math.max(0, maxCount))
+                .collect(Collectors.toList());
+        queue.removeAll(due);
+        return due;
+    }
+
+    private ScheduledGraph findPreferred(Set<Graph.Type> preferredTypes, long latestDeadline) {
+        ScheduledGraph preferred = null;
+        for (ScheduledGraph scheduledGraph : queue) {
+            if (preferredTypes.contains(scheduledGraph.type) && scheduledGraph.deadline <= latestDeadline
+                    && (preferred == null || scheduledGraph.compareTo(preferred) < 0)) {
+                preferred = scheduledGraph;
+            }
+        }
+        return preferred;
+    }
+
+    /**
+     * @return how long the most overdue graph has been waiting, or 0 if no graph is overdue
+     */
+    public synchronized long getMaxOverdueMillis(long now) {
+        ScheduledGraph next = queue.peek();
+        return next == null ? 0 : Math.max(0, now - next.deadline);
+    }
+
+    /**
+     * Puts an updated graph back in the schedule. The next update is due one update interval after the start of the
+     * previous update, so the time the update took doesn't add to the interval.
+     */
+    public void reschedule(ScheduledGraph scheduledGraph, long updateStartedAt) {
+        reschedule(scheduledGraph, updateStartedAt, 0);
+    }
+
+    /**
+     * Like {@link #reschedule(ScheduledGraph, long)}, but the next update isn't due before the given time. Used to
+     * back off from failing graphs.
+     */
+    public synchronized void reschedule(ScheduledGraph scheduledGraph, long updateStartedAt, long notBefore) {
+        if (scheduledGraphs.get(scheduledGraph.getGraph().getId()) != scheduledGraph) {
+            // Removed from the config while it was being updated.
+            return;
+        }
+        long nextUpdate = updateStartedAt + Math.max(0, updateIntervalSource.applyAsInt(scheduledGraph)) * 1000L;
+        scheduledGraph.deadline = Math.max(nextUpdate, notBefore);
+        scheduledGraph.sequence = sequence++;
+        queue.add(scheduledGraph);
+        notifyAll();
+    }
+
+    /**
+     * Makes the given graphs due before all other graphs, for example because someone started watching them. Graphs
+     * that are being updated right now are left alone; they will be up to date shortly. The ids of images derived
+     * from a graph, like its slices, expedite the graph itself.
+     */
+    public synchronized void expedite(Collection<String> graphIds, long now) {
+        ScheduledGraph head = queue.peek();
+        long deadline = head == null ? now : Math.min(now, head.deadline - 1);
+        Set<String> ids = new HashSet<>(graphIds);
+        for (ScheduledGraph scheduledGraph : new ArrayList<>(scheduledGraphs.values())) {
+            Graph graph = scheduledGraph.graph;
+            boolean requested = ids.contains(graph.getId())
+                    || graph.getDerivedImageIds().stream().anyMatch(ids::contains);
+            if (!requested || scheduledGraph.deadline <= deadline || !queue.remove(scheduledGraph)) {
+                continue;
+            }
+            scheduledGraph.deadline = deadline;
+            scheduledGraph.sequence = sequence++;
+            queue.add(scheduledGraph);
+        }
+        notifyAll();
+    }
+
+    public synchronized void stop() {
+        stop = true;
+        notifyAll();
+    }
+
+    public static class ScheduledGraph implements Comparable<ScheduledGraph> {
+        private final Graph.Type type;
+        private Graph graph;
+        private long deadline;
+        private long sequence;
+
+        private ScheduledGraph(Graph.Type type, Graph graph, long deadline, long sequence) {
+            this.type = type;
+            this.graph = graph;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        public Graph.Type getType() {
+            return type;
+        }
+
+        public Graph getGraph() {
+            return graph;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public int compareTo(ScheduledGraph other) {
+            int byDeadline = Long.compare(deadline, other.deadline);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+}
@@ -1,8 +1,11 @@
 package nl.revolution.watchboard.plugins;
 
 import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.DashboardViewerTracker;
+import nl.revolution.watchboard.GraphChangeTracker;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.plugins.GraphUpdateScheduler.ScheduledGraph;
 import nl.revolution.watchboard.plugins.cloudwatch.CloudWatchDashboardPlugin;
 import nl.revolution.watchboard.plugins.cloudwatch.CloudWatchPlugin;
 import nl.revolution.watchboard.plugins.kibana.KibanaPlugin;
@@ -11,97 +14,113 @@ import nl.revolution.watchboard.plugins.sonar.SonarPlugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class PluginSource {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginSource.class);
+    private static final Set<Graph.Type> PLUGIN_TYPES = EnumSet.of(Graph.Type.CLOUDWATCH,
+            Graph.Type.CLOUDWATCH_DASHBOARD, Graph.Type.PERFORMR, Graph.Type.KIBANA, Graph.Type.KIBANA5,
+            Graph.Type.SONAR);
+    private static final int DEFAULT_BACKGROUND_INTERVAL_SECONDS = 15 * 60;
+    private static final int DEFAULT_MIN_INTERVAL_DIVISOR = 2;
+    private static final int DEFAULT_MAX_INTERVAL_FACTOR = 10;
 
-    private List<Thread> workers;
+    private BrowserPool browserPool;
 
     public void start() {
-        workers = new ArrayList<>();
-
-        List<String> browserInstances = Config.getInstance().getBrowserInstances();
-
-        for (String browserInstance : browserInstances) {
-            List<WatchboardPlugin> pluginsForBrowserInstance = new ArrayList<>();
-
-            Plugin cloudWatchPlugin = Config.getInstance().getPlugin(Graph.Type.CLOUDWATCH);
-            if (cloudWatchPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.CLOUDWATCH) > 0
-                    && browserInstance.equals(cloudWatchPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new CloudWatchPlugin());
-                LOG.info("CloudWatch plugin configured for browser instance '" + browserInstance + "'.");
-            }
-
-            Plugin cloudWatchDashboardPlugin = Config.getInstance().getPlugin(Graph.Type.CLOUDWATCH_DASHBOARD);
-            if (cloudWatchDashboardPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.CLOUDWATCH_DASHBOARD) > 0
-                    && browserInstance.equals(cloudWatchDashboardPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new CloudWatchDashboardPlugin());
-                LOG.info("CloudWatch dashboard plugin configured for browser instance '" + browserInstance + "'.");
-            }
-
-            Plugin performrPlugin = Config.getInstance().getPlugin(Graph.Type.PERFORMR);
-            if (performrPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.PERFORMR) > 0
-                    && browserInstance.equals(performrPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new PerformrPlugin());
-                LOG.info("Performr plugin configured for browser instance '" + browserInstance + "'.");
-            }
-
-            Plugin kibanaPlugin = Config.getInstance().getPlugin(Graph.Type.KIBANA);
-            if (kibanaPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.KIBANA) > 0
-                    && browserInstance.equals(kibanaPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new KibanaPlugin(Graph.Type.KIBANA));
-                LOG.info("Kibana plugin configured for browser instance '" + browserInstance + "'.");
-            }
-
-            Plugin kibana5Plugin = Config.getInstance().getPlugin(Graph.Type.KIBANA5);
-            if (kibana5Plugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.KIBANA5) > 0
-                    && browserInstance.equals(kibana5Plugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new KibanaPlugin(Graph.Type.KIBANA5));
-                LOG.info("Kibana5 plugin configured for browser instance '" + browserInstance + "'.");
-            }
-
-            Plugin sonarPlugin = Config.getInstance().getPlugin(Graph.Type.SONAR);
-            if (sonarPlugin != null
-                    && Config.getInstance().getGraphCountForType(Graph.Type.SONAR) > 0
-                    && browserInstance.equals(sonarPlugin.getBrowserInstance())) {
-                pluginsForBrowserInstance.add(new SonarPlugin());
-                LOG.info("Sonar plugin configured for browser instance '" + browserInstance + "'.");
+        Config config = Config.getInstance();
+        List<Graph.Type> types = config.getPlugins().stream()
+                .map(Plugin::getType)
+                .filter(Objects::nonNull)
+                .filter(PLUGIN_TYPES::contains)
+                .collect(Collectors.toList());
+
+        if (types.isEmpty()) {
+            LOG.warn("No plugins configured, skipping browser initialization.");
+            return;
+        }
+        types.forEach(type -> LOG.info("Plugin {} configured with {} graphs in {} unique captures.", type,
+                config.getGraphCountForType(type), config.getCapturesForType(type).size()));
+
+        // Without explicit pool sizes, keep one browser per configured browser instance.
+        int maxSize = config.getInt(Config.BROWSER_POOL_MAX_SIZE);
+        int minSize = config.getInt(Config.BROWSER_POOL_MIN_SIZE);
+        if (maxSize <= 0) {
+            maxSize = Math.max(1, config.getBrowserInstances().size());
+            minSize = minSize <= 0 ? maxSize : minSize;
+        }
+        minSize = Math.max(1, Math.min(minSize, maxSize));
+
+        GraphUpdateScheduler scheduler = new GraphUpdateScheduler(
+                type -> Config.getInstance().getCapturesForType(type),
+                PluginSource::getUpdateIntervalSeconds);
+        browserPool = new BrowserPool(minSize, maxSize, types, scheduler);
+        browserPool.start();
+
+        DashboardViewerTracker.getInstance().setArrivalListener(dashboard -> {
+            if (config.getBoolean(Config.DEMAND_CAPTURE_ENABLED, true)) {
+                LOG.info("Catching up on graphs of dashboard {}.", dashboard.getId());
+                scheduler.expedite(dashboard.getGraphs().stream().map(Graph::getId).collect(Collectors.toList()),
+                        System.currentTimeMillis());
             }
+        });
+    }
 
-            if (!pluginsForBrowserInstance.isEmpty()) {
-                LOG.info("Starting browser instance '" + browserInstance + "' for plugins " + pluginsForBrowserInstance + ".");
-                workers.add(new PluginUpdateThread(browserInstance, pluginsForBrowserInstance));
-            } else {
-                LOG.warn("No plugins configured for browser instance '" + browserInstance + "', skipping initialization.");
-            }
+    public void stop() {
+        if (browserPool != null) {
+            browserPool.stop();
         }
-
-        workers.stream().forEach(Thread::start);
     }
 
-    public void stop() {
-        workers.stream().forEach(this::stopWorker);
+    static WatchboardPlugin createPlugin(Graph.Type type) {
+        switch (type) {
+            case CLOUDWATCH:
+                return new CloudWatchPlugin();
+            case CLOUDWATCH_DASHBOARD:
+                return new CloudWatchDashboardPlugin();
+            case PERFORMR:
+                return new PerformrPlugin();
+            case KIBANA:
+            case KIBANA5:
+                return new KibanaPlugin(type);
+            case SONAR:
+                return new SonarPlugin();
+            default:
+                throw new IllegalArgumentException("No plugin available for graph type " + type);
+        }
     }
 
-    private void stopWorker(Thread worker) {
-        if (worker != null) {
-            if (worker.isAlive()) {
-                ((PluginUpdateThread)worker).doStop();
-                try {
-                    worker.join();
-                } catch (InterruptedException e) {
-                    LOG.error("Error stopping PluginSource: ", e);
-                }
-            }
+    /**
+     * Graphs are updated at the interval learned from how often their image changes. Graphs that nobody is watching
+     * are only updated at the background interval, so that they are reasonably recent when someone opens their
+     * dashboard.
+     */
+    private static int getUpdateIntervalSeconds(ScheduledGraph scheduledGraph) {
+        Config config = Config.getInstance();
+        Plugin plugin = config.getPlugin(scheduledGraph.getType());
+        if (plugin == null) {
+            return 0;
+        }
+        // Without explicit bounds, update at most twice as often as configured and back off to 10 times less often.
+        int baseIntervalSeconds = plugin.getUpdateIntervalSeconds();
+        int minIntervalSeconds = plugin.getMinUpdateIntervalSeconds() > 0 ? plugin.getMinUpdateIntervalSeconds()
+                : Math.max(1, baseIntervalSeconds / DEFAULT_MIN_INTERVAL_DIVISOR);
+        int maxIntervalSeconds = plugin.getMaxUpdateIntervalSeconds() > 0 ? plugin.getMaxUpdateIntervalSeconds()
+                : baseIntervalSeconds * DEFAULT_MAX_INTERVAL_FACTOR;
+        int updateIntervalSeconds = GraphChangeTracker.getInstance().getUpdateIntervalSeconds(
+                scheduledGraph.getGraph().getId(), baseIntervalSeconds, minIntervalSeconds, maxIntervalSeconds);
+        if (!config.getBoolean(Config.DEMAND_CAPTURE_ENABLED, true)
+                || DashboardViewerTracker.getInstance().isGraphWatched(scheduledGraph.getGraph(), System.currentTimeMillis())) {
+            return updateIntervalSeconds;
         }
+        int backgroundIntervalSeconds = config.getInt(Config.DEMAND_CAPTURE_BACKGROUND_INTERVAL_SECONDS);
+        return Math.max(updateIntervalSeconds,
+                backgroundIntervalSeconds > 0 ? backgroundIntervalSeconds : DEFAULT_BACKGROUND_INTERVAL_SECONDS);
     }
 
 }
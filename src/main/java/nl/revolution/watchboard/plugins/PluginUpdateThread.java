@@ -1,95 +1,313 @@
 package nl.revolution.watchboard.plugins;
 
 import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.plugins.GraphUpdateScheduler.ScheduledGraph;
+import nl.revolution.watchboard.utils.ReadinessStats;
+import nl.revolution.watchboard.utils.RoundTripStats;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * A single browser of the {@link BrowserPool}. Takes due graphs from the shared schedule and updates them. Plugins
+ * are created and logged in on first use, and stay logged in until the browser is restarted. Plugins that share an
+ * identity share its login.
+ *
+ * With tabs enabled, every graph keeps its page loaded in a window of its own (see {@link GraphTabs}). Due graphs
+ * with a window are refreshed in place, all at the same time, and then captured one by one.
+ */
 public class PluginUpdateThread extends Thread {
 
     private static final Logger LOG = LoggerFactory.getLogger(PluginUpdateThread.class);
+    private static final long IDLE_CHECK_INTERVAL_MS = 10 * 1000;
+    private static final long MAX_IDLE_TIME_MS = 5 * 60 * 1000;
+    private static final int DEFAULT_MAX_TABS = 8;
+
+    private final BrowserPool pool;
+    private final GraphUpdateScheduler scheduler;
+    private final Map<Graph.Type, WatchboardPlugin> loggedInPlugins = new EnumMap<>(Graph.Type.class);
+    private final Set<String> loggedInIdentities = new HashSet<>();
+    private final GraphTabs tabs;
     private WebDriverWrapper wrappedDriver;
 
-    private List<WatchboardPlugin> plugins;
-    private boolean stop;
+    private volatile boolean stop;
     private long currentSessionStartTimestamp;
-    private String browserInstance;
-    private String pluginNames;
 
-    public PluginUpdateThread(String browserInstance, List<WatchboardPlugin> plugins) {
-        this.browserInstance = browserInstance;
-        this.plugins = plugins;
-        this.pluginNames = StringUtils.join(plugins.stream().map(WatchboardPlugin::getName).collect(Collectors.toList()));
+    public PluginUpdateThread(String browserName, BrowserPool pool, GraphUpdateScheduler scheduler) {
+        super(browserName);
+        this.pool = pool;
+        this.scheduler = scheduler;
+        Config config = Config.getInstance();
+        int maxTabs = config.getInt(Config.TABS_MAX_PER_BROWSER);
+        tabs = config.getBoolean(Config.TABS_ENABLED, false) ? new GraphTabs(maxTabs > 0 ? maxTabs : DEFAULT_MAX_TABS) : null;
     }
 
     public void run() {
-        LOG.info("Starting data worker for browser instance '" + browserInstance + "' with plugins " + pluginNames + ".");
-        currentSessionStartTimestamp = System.currentTimeMillis();
+        LOG.info("Starting browser '" + getName() + "'.");
+        long idleSince = System.currentTimeMillis();
+        try {
+            while (!stop) {
+                pool.checkForConfigUpdate();
 
-        wrappedDriver = new WebDriverWrapper();
-        wrappedDriver.start();
+                ScheduledGraph next = scheduler.awaitNextDue(IDLE_CHECK_INTERVAL_MS, loggedInPlugins.keySet());
+                if (next == null) {
+                    if (System.currentTimeMillis() - idleSince > MAX_IDLE_TIME_MS && pool.retire(this)) {
+                        break;
+                    }
+                    restartIfMaxSessionDurationExceeded();
+                    continue;
+                }
+                pool.checkScaleUp();
 
-        plugins.forEach(plugin -> plugin.setDriver(wrappedDriver));
-        plugins.forEach(WatchboardPlugin::performLogin);
+                long start = System.currentTimeMillis();
+                List<ScheduledGraph> batch = collectBatch(next, start);
+                Set<String> refreshing = startRefreshes(batch);
+                for (ScheduledGraph scheduledGraph : batch) {
+                    updateWithRecovery(scheduledGraph, start, refreshing.contains(scheduledGraph.getGraph().getId()));
+                }
+                idleSince = System.currentTimeMillis();
 
-        LOG.info("Starting main update loop for plugins " + pluginNames);
+                restartIfMaxSessionDurationExceeded();
+            }
+        } catch (InterruptedException e) {
+            LOG.error("Browser '" + getName() + "' was interrupted: ", e);
+        } finally {
+            shutdownBrowser();
+            pool.workerStopped(this);
+            LOG.info("Stopped browser '" + getName() + "'.");
+        }
+    }
+
+    private void restartIfMaxSessionDurationExceeded() {
+        if (wrappedDriver == null) {
+            return;
+        }
 
-        while (!stop) {
-            plugins.forEach(plugin -> {
-                if (!performSinglePluginUpdate(plugin)) {
-                    LOG.error("Update run for plugin '" + plugin.getName() + "' failed, restarting browserInstance '" + browserInstance + "' for plugins " + pluginNames + ": ");
-                    restartWebDriverAndReLogin();
+        // Re-start webdriver and re-login every now and than to prevent session max duration issues.
+        long currentSessionTimeInMinutes = ((System.currentTimeMillis() - currentSessionStartTimestamp) / 1000 / 60);
+        LOG.debug("currentSessionTimeInMinutes: " + currentSessionTimeInMinutes);
+        if (currentSessionTimeInMinutes > Config.getInstance().getInt(Config.MAX_SESSION_DURATION_MINUTES)) {
+            LOG.info("Max session duration exceeded, restarting browser '" + getName() + "'.");
+
+            // Restart; this also resets the session duration timer.
+            restartWebDriver();
+        }
+    }
+
+    /**
+     * @return the given graph, and if it has a window, all other due graphs that have a window as well
+     */
+    private List<ScheduledGraph> collectBatch(ScheduledGraph next, long now) {
+        List<ScheduledGraph> batch = new ArrayList<>();
+        batch.add(next);
+        if (tabs != null && tabs.has(next.getGraph().getId())) {
+            batch.addAll(scheduler.takeDue(scheduledGraph -> tabs.has(scheduledGraph.getGraph().getId()), now,
+                    tabs.getMaxTabs() - 1));
+        }
+        return batch;
+    }
+
+    /**
+     * Starts refreshing the graphs that have a window, so their pages reload at the same time.
+     *
+     * @return the ids of the graphs that are refreshing
+     */
+    private Set<String> startRefreshes(List<ScheduledGraph> batch) {
+        Set<String> refreshing = new HashSet<>();
+        if (tabs == null) {
+            return refreshing;
+        }
+        for (ScheduledGraph scheduledGraph : batch) {
+            String graphId = scheduledGraph.getGraph().getId();
+            WatchboardPlugin plugin = loggedInPlugins.get(scheduledGraph.getType());
+            if (plugin == null || !tabs.has(graphId)) {
+                continue;
+            }
+            try {
+                tabs.switchTo(wrappedDriver.getDriver(), graphId, scheduledGraph.getType());
+                if (plugin.startRefresh(scheduledGraph.getGraph())) {
+                    refreshing.add(graphId);
                 }
-            });
+            } catch (Exception e) {
+                LOG.warn("Error while refreshing graph '" + graphId + "', loading it again: " + e.getMessage());
+                tabs.close(wrappedDriver.getDriver(), graphId);
+            }
+        }
+        if (refreshing.size() > 1) {
+            LOG.info("Refreshing " + refreshing.size() + " graphs at the same time.");
+        }
+        return refreshing;
+    }
+
+    /**
+     * Updates a graph, escalating on failure: first the update is retried, then only the plugin of the graph logs in
+     * again, and only if the browser itself stopped responding is it restarted. Graphs that keep failing are backed
+     * off and get a single attempt, without any recovery, until they work again.
+     */
+    private void updateWithRecovery(ScheduledGraph scheduledGraph, long start, boolean refreshStarted) {
+        String graphId = scheduledGraph.getGraph().getId();
+        Graph.Type type = scheduledGraph.getType();
+        UpdateFailureTracker failureTracker = UpdateFailureTracker.getInstance();
+
+        boolean updated = performSingleGraphUpdate(scheduledGraph, refreshStarted);
+        if (!updated && !failureTracker.isCircuitOpen(graphId)) {
+            LOG.warn("Update of graph '" + graphId + "' failed, retrying.");
+            updated = performSingleGraphUpdate(scheduledGraph, false);
+            failureTracker.recordRetry(updated);
 
-            // Re-start webdriver and re-login every now and than to prevent session max duration issues.
-            long currentSessionTimeInMinutes = ((System.currentTimeMillis() - currentSessionStartTimestamp) / 1000 / 60);
-            LOG.info("currentSessionTimeInMinutes: " + currentSessionTimeInMinutes);
-            if (currentSessionTimeInMinutes > Config.getInstance().getInt(Config.MAX_SESSION_DURATION_MINUTES)) {
-                LOG.info("Max session duration exceeded, restarting browser instance '" + browserInstance + "'.");
+            if (!updated) {
+                LOG.warn("Retry of graph '" + graphId + "' failed, logging in to " + type + " again.");
+                logOut(type);
+                updated = performSingleGraphUpdate(scheduledGraph, false);
+                failureTracker.recordReLogin(updated);
+            }
 
-                // Restart; this also resets the session duration timer.
-                restartWebDriverAndReLogin();
+            if (!updated && wrappedDriver != null && !wrappedDriver.isResponsive()) {
+                LOG.error("Browser '" + getName() + "' is not responding, restarting it.");
+                failureTracker.recordBrowserRestart();
+                restartWebDriver();
             }
         }
+
+        if (updated) {
+            failureTracker.recordSuccess(graphId);
+            scheduler.reschedule(scheduledGraph, start);
+        } else {
+            scheduler.reschedule(scheduledGraph, start, failureTracker.recordFailure(graphId, System.currentTimeMillis()));
+        }
     }
 
-    private boolean performSinglePluginUpdate(WatchboardPlugin plugin) {
+    /**
+     * @param refreshStarted whether the page of the graph is refreshing in its window already
+     */
+    private boolean performSingleGraphUpdate(ScheduledGraph scheduledGraph, boolean refreshStarted) {
         long start = System.currentTimeMillis();
-        String pluginName = plugin.getName();
-        LOG.info("Performing update for plugin " + pluginName);
+        Graph graph = scheduledGraph.getGraph();
+        long overdueMillis = start - scheduledGraph.getDeadline();
+        LOG.info("Performing update of graph " + graph.getId() + " (" + overdueMillis + " ms overdue).");
 
-        // Perform update.
+        // Perform update. Logging in doesn't count towards the round trips of the capture.
+        long roundTrips;
         try {
-            plugin.performUpdate();
+            WatchboardPlugin plugin = getLoggedInPlugin(scheduledGraph.getType());
+            long roundTripsBefore = wrappedDriver.getRoundTrips();
+            // The window of the graph is gone if the browser was restarted since the refresh was started.
+            boolean pageLoaded = tabs != null && tabs.switchTo(wrappedDriver.getDriver(), graph.getId(),
+                    scheduledGraph.getType());
+            ReadinessStats.getInstance().startCapture(graph.getId());
+            try {
+                if (refreshStarted && pageLoaded) {
+                    plugin.captureRefresh(graph);
+                } else {
+                    plugin.performUpdate(graph);
+                }
+            } finally {
+                ReadinessStats.getInstance().finishCapture();
+            }
+            roundTrips = wrappedDriver.getRoundTrips() - roundTripsBefore;
         } catch (Exception e) {
-            LOG.error("Error while performing plugin update for plugin '" + plugin.getName() + "':", e);
+            LOG.error("Error while performing update of graph '" + graph.getId() + "':", e);
+            if (tabs != null && wrappedDriver != null) {
+                // Start over in a new window.
+                tabs.close(wrappedDriver.getDriver(), graph.getId());
+            }
             return false;
         }
+        RoundTripStats.getInstance().record(graph.getId(), roundTrips);
 
         long end = System.currentTimeMillis();
-        LOG.info("Done performing update for plugin " + pluginName + ". Update took " + ((end - start) / 1000) + " seconds.");
-
-        // Wait before fetching next update.
-//        int backendUpdateIntervalSeconds = plugin.getUpdateInterval();
-//        LOG.debug("Sleeping {} seconds until next update for plugin " + pluginName + ".", backendUpdateIntervalSeconds);
-//        doSleep(1000 * backendUpdateIntervalSeconds);
+        LOG.info("Done performing update of graph " + graph.getId() + ". Update took " + (end - start) + " ms and "
+                + roundTrips + " round trips.");
         return true;
     }
 
+    private WatchboardPlugin getLoggedInPlugin(Graph.Type type) {
+        WatchboardPlugin plugin = loggedInPlugins.get(type);
+        if (plugin != null) {
+            return plugin;
+        }
+
+        if (wrappedDriver == null) {
+            wrappedDriver = new WebDriverWrapper();
+            wrappedDriver.start();
+            currentSessionStartTimestamp = System.currentTimeMillis();
+        }
+
+        plugin = PluginSource.createPlugin(type);
+        plugin.setDriver(wrappedDriver);
+        Plugin pluginConfig = Config.getInstance().getPlugin(type);
+        String identityKey = AuthSessionManager.identityKey(pluginConfig);
+        if (tabs != null) {
+            // Log in without navigating away from the page of a graph.
+            tabs.switchToMain(wrappedDriver.getDriver());
+        }
+        if (loggedInIdentities.contains(identityKey)) {
+            AuthSessionManager.getInstance().recordSharedLogin(pluginConfig);
+        } else {
+            AuthSessionManager.getInstance().logIn(plugin, pluginConfig, wrappedDriver);
+            loggedInIdentities.add(identityKey);
+        }
+        loggedInPlugins.put(type, plugin);
+        return plugin;
+    }
+
+    /**
+     * Drops the plugin of the given type; it logs in again when it is needed next.
+     */
+    private void logOut(Graph.Type type) {
+        WatchboardPlugin plugin = loggedInPlugins.remove(type);
+        if (plugin != null) {
+            plugin.shutdown();
+        }
+        if (tabs != null && wrappedDriver != null) {
+            tabs.closeAll(wrappedDriver.getDriver(), type);
+        }
+        // The session may be the cause of the failure; don't continue it. Plugins sharing the identity use the new
+        // session once the plugin has logged in again.
+        Plugin pluginConfig = Config.getInstance().getPlugin(type);
+        loggedInIdentities.remove(AuthSessionManager.identityKey(pluginConfig));
+        SessionCache.getInstance().invalidate(pluginConfig);
+    }
+
     public void doStop() {
         stop = true;
-        plugins.forEach(WatchboardPlugin::shutdown);
     }
 
-    private void restartWebDriverAndReLogin() {
+    private void restartWebDriver() {
+        // Plugins log in again when they are needed next.
+        loggedInPlugins.values().forEach(WatchboardPlugin::shutdown);
+        loggedInPlugins.clear();
+        loggedInIdentities.clear();
+        if (tabs != null) {
+            tabs.clear();
+        }
+        if (wrappedDriver == null) {
+            return;
+        }
         wrappedDriver.restart();
-        plugins.forEach(WatchboardPlugin::performLogin);
         currentSessionStartTimestamp = System.currentTimeMillis();
     }
 
+    private void shutdownBrowser() {
+        loggedInPlugins.values().forEach(WatchboardPlugin::shutdown);
+        loggedInPlugins.clear();
+        loggedInIdentities.clear();
+        if (tabs != null) {
+            tabs.clear();
+        }
+        if (wrappedDriver != null) {
+            wrappedDriver.shutdown();
+            wrappedDriver = null;
+        }
+    }
+
 }
@@ -0,0 +1,298 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.Config;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the session cookies of each plugin login, so that a restarted browser can continue the previous session
+ * instead of logging in again. Sessions are kept in memory and in an encrypted file per login, so they also survive
+ * a restart of watchboard.
+ *
+ * The files are encrypted with AES-GCM, using a key derived from the password of the login, and are only accessible
+ * for the owner. Logins without a password are cheap and aren't cached. Only cookies that are sent to the host of
+ * the login URL are kept, and a session is discarded once all of its cookies have expired.
+ */
+public class SessionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCache.class);
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final String KEY_DERIVATION = "PBKDF2WithHmacSHA256";
+    private static final int KEY_DERIVATION_ITERATIONS = 10000;
+    private static final int KEY_BITS = 128;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final String FILE_EXTENSION = ".session";
+    private static final String COOKIE_DOMAIN = "domain";
+    private static final String COOKIE_EXPIRY = "expiry";
+
+    private static final SessionCache INSTANCE = new SessionCache();
+
+    // Null to use the configured directory.
+    private final Path directory;
+    private final Map<String, List<Map<String, Object>>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong restoredSessions = new AtomicLong();
+    private final AtomicLong invalidSessions = new AtomicLong();
+    private final AtomicLong fullLogins = new AtomicLong();
+
+    private SessionCache() {
+        this(null);
+    }
+
+    /**
+     * Creates a cache that keeps its files in the given directory, regardless of the config.
+     */
+    SessionCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static SessionCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Restores the saved session of the given login into the browser.
+     *
+     * @return true if a session was restored; whether it is still valid has to be checked by the plugin
+     */
+    boolean restore(Plugin plugin, WebDriverWrapper wrappedDriver) {
+        if (!isCacheable(plugin)) {
+            return false;
+        }
+        String sessionId = sessionId(plugin);
+        List<Map<String, Object>> cookies = sessions.computeIfAbsent(sessionId, id -> readSession(plugin, id));
+        if (cookies == null) {
+            return false;
+        }
+        cookies = withoutExpiredCookies(cookies, System.currentTimeMillis() / 1000);
+        if (cookies.isEmpty()) {
+            LOG.info("Saved session for {} has expired.", plugin.getType());
+            invalidate(plugin);
+            return false;
+        }
+        int restored = wrappedDriver.addCookies(cookies);
+        LOG.info("Restored {} of {} session cookies for {}.", restored, cookies.size(), plugin.getType());
+        return restored > 0;
+    }
+
+    /**
+     * Saves the cookies of the given login, after it logged in successfully.
+     */
+    void save(Plugin plugin, WebDriverWrapper wrappedDriver) {
+        fullLogins.incrementAndGet();
+        if (!isCacheable(plugin)) {
+            return;
+        }
+        String loginHost = host(plugin.getLoginUrl());
+        List<Map<String, Object>> cookies = wrappedDriver.getAllCookies().stream()
+                .filter(cookie -> domainMatches(loginHost, (String) cookie.get(COOKIE_DOMAIN)))
+                .collect(Collectors.toList());
+        if (cookies.isEmpty()) {
+            return;
+        }
+        String sessionId = sessionId(plugin);
+        sessions.put(sessionId, cookies);
+        writeSession(plugin, sessionId, cookies);
+        LOG.info("Saved {} session cookies for {}.", cookies.size(), plugin.getType());
+    }
+
+    /**
+     * Forgets the saved session of the given login, for example because it turned out to be invalid.
+     */
+    void invalidate(Plugin plugin) {
+        if (!isCacheable(plugin)) {
+            return;
+        }
+        String sessionId = sessionId(plugin);
+        sessions.remove(sessionId);
+        deleteSessionFile(sessionFile(sessionId));
+    }
+
+    void recordProbe(boolean valid) {
+        if (valid) {
+            restoredSessions.incrementAndGet();
+        } else {
+            invalidSessions.incrementAndGet();
+        }
+    }
+
+    public JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        stats.put("restoredSessions", restoredSessions.get());
+        stats.put("invalidSessions", invalidSessions.get());
+        stats.put("fullLogins", fullLogins.get());
+        return stats;
+    }
+
+    private boolean isCacheable(Plugin plugin) {
+        return plugin != null && StringUtils.isNotEmpty(plugin.getPassword()) && StringUtils.isNotEmpty(plugin.getLoginUrl())
+                && (directory != null || Config.getInstance().getBoolean(Config.SESSION_CACHE_ENABLED, true));
+    }
+
+    private static List<Map<String, Object>> withoutExpiredCookies(List<Map<String, Object>> cookies, long nowSeconds) {
+        // Cookies without an expiry last for the browser session, which the saved session continues.
+        return cookies.stream()
+                .filter(cookie -> !(cookie.get(COOKIE_EXPIRY) instanceof Number)
+                        || ((Number) cookie.get(COOKIE_EXPIRY)).longValue() > nowSeconds)
+                .collect(Collectors.toList());
+    }
+
+    private List<Map<String, Object>> readSession(Plugin plugin, String sessionId) {
+        Path file = sessionFile(sessionId);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            byte[] content = Files.readAllBytes(file);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key(plugin, sessionId), new GCMParameterSpec(TAG_BITS, content, 0, IV_BYTES));
+            cipher.updateAAD(sessionId.getBytes(StandardCharsets.UTF_8));
+            byte[] plain = cipher.doFinal(content, IV_BYTES, content.length - IV_BYTES);
+            return (JSONArray) new JSONParser().parse(new String(plain, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // Also happens when the password was changed; the session is useless then anyway.
+            LOG.warn("Could not read saved session for {}, ignoring it: {}", plugin.getType(), e.getMessage());
+            deleteSessionFile(file);
+            return null;
+        }
+    }
+
+    private void writeSession(Plugin plugin, String sessionId, List<Map<String, Object>> cookies) {
+        try {
+            JSONArray cookiesJa = new JSONArray();
+            cookies.forEach(cookie -> cookiesJa.add(new JSONObject(cookie)));
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key(plugin, sessionId), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(sessionId.getBytes(StandardCharsets.UTF_8));
+            byte[] encrypted = cipher.doFinal(cookiesJa.toJSONString().getBytes(StandardCharsets.UTF_8));
+
+            byte[] content = Arrays.copyOf(iv, IV_BYTES + encrypted.length);
+            System.arraycopy(encrypted, 0, content, IV_BYTES, encrypted.length);
+            Path file = sessionFile(sessionId);
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            createOwnerOnly(file.getParent(), true);
+            Files.deleteIfExists(tempFile);
+            // Only accessible for the owner, like a private key, before anything is written to it.
+            createOwnerOnly(tempFile, false);
+            Files.write(tempFile, content);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e) {
+            LOG.error("Error while saving session for " + plugin.getType() + ": ", e);
+        }
+    }
+
+    private static void createOwnerOnly(Path path, boolean directory) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        FileAttribute<?>[] ownerOnly = posix
+                ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(
+                        PosixFilePermissions.fromString(directory ? "rwx------" : "rw-------"))}
+                : new FileAttribute<?>[0];
+        if (directory) {
+            Files.createDirectories(path, ownerOnly);
+            return;
+        }
+        Files.createFile(path, ownerOnly);
+        if (!posix) {
+            path.toFile().setReadable(false, false);
+            path.toFile().setReadable(true, true);
+        }
+    }
+
+    private SecretKey key(Plugin plugin, String sessionId) {
+        // Key derivation is deliberately slow; do it once per login (and password).
+        String keyId = sessionId + DigestUtils.sha1Hex(plugin.getPassword());
+        return keys.computeIfAbsent(keyId, id -> {
+            try {
+                PBEKeySpec spec = new PBEKeySpec(plugin.getPassword().toCharArray(),
+                        sessionId.getBytes(StandardCharsets.UTF_8), KEY_DERIVATION_ITERATIONS, KEY_BITS);
+                byte[] key = SecretKeyFactory.getInstance(KEY_DERIVATION).generateSecret(spec).getEncoded();
+                return new SecretKeySpec(key, "AES");
+            } catch (Exception e) {
+                throw new RuntimeException("Error deriving session cache key: ", e);
+            }
+        });
+    }
+
+    private Path sessionFile(String sessionId) {
+        if (directory != null) {
+            return directory.resolve(sessionId + FILE_EXTENSION);
+        }
+        String path = Config.getInstance().getString(Config.SESSION_CACHE_PATH);
+        if (path == null) {
+            path = Config.getInstance().getString(Config.TEMP_PATH) + File.separator + "sessions";
+        }
+        return Paths.get(path, sessionId + FILE_EXTENSION);
+    }
+
+    private void deleteSessionFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.error("Error while deleting saved session " + file + ": ", e);
+        }
+    }
+
+    /**
+     * A session belongs to an identity (login URL and username), so plugins sharing an identity share its session.
+     */
+    static String sessionId(Plugin plugin) {
+        return DigestUtils.sha1Hex(AuthSessionManager.identityKey(plugin));
+    }
+
+    /**
+     * @return the lower case host of a URL, or an empty string if it has none
+     */
+    static String host(String url) {
+        String host = url == null ? null : URI.create(url).getHost();
+        return host == null ? "" : host.toLowerCase();
+    }
+
+    /**
+     * Domain matching as browsers do it (RFC 6265): a cookie is sent to a host if its domain is the host itself, or
+     * a parent domain of it.
+     */
+    static boolean domainMatches(String host, String cookieDomain) {
+        if (StringUtils.isEmpty(host) || StringUtils.isEmpty(cookieDomain)) {
+            return false;
+        }
+        String domain = StringUtils.removeStart(cookieDomain.toLowerCase(), ".");
+        return host.equals(domain) || host.endsWith("." + domain);
+    }
+
+}
@@ -0,0 +1,155 @@
+package nl.revolution.watchboard.plugins;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of failing graph updates and of the recovery steps that were taken for them.
+ *
+ * A failed graph is retried with exponential backoff. After a number of consecutive failures its circuit opens: the
+ * graph then only gets a single attempt per backoff period, without retries, re-logins or browser restarts, so one
+ * broken graph can't keep disturbing the other graphs of its browser.
+ */
+public class UpdateFailureTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UpdateFailureTracker.class);
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 3;
+    private static final long BASE_BACKOFF_MS = 30 * 1000;
+    private static final long MAX_BACKOFF_MS = 30 * 60 * 1000;
+
+    private static final UpdateFailureTracker INSTANCE = new UpdateFailureTracker();
+
+    private final Map<String, GraphFailures> failuresPerGraph = new ConcurrentHashMap<>();
+    private final AtomicLong failedUpdates = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong successfulRetries = new AtomicLong();
+    private final AtomicLong reLogins = new AtomicLong();
+    private final AtomicLong successfulReLogins = new AtomicLong();
+    private final AtomicLong browserRestarts = new AtomicLong();
+    private final AtomicLong circuitOpens = new AtomicLong();
+
+    UpdateFailureTracker() {
+    }
+
+    public static UpdateFailureTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if the circuit of the graph is open; the next attempt is a probe that isn't worth any recovery
+     */
+    boolean isCircuitOpen(String graphId) {
+        GraphFailures failures = failuresPerGraph.get(graphId);
+        return failures != null && failures.isCircuitOpen();
+    }
+
+    void recordSuccess(String graphId) {
+        GraphFailures failures = failuresPerGraph.get(graphId);
+        if (failures != null && failures.recordSuccess()) {
+            LOG.info("Graph {} recovered, closing its circuit.", graphId);
+        }
+    }
+
+    /**
+     * @return the earliest time the graph should be updated again
+     */
+    long recordFailure(String graphId, long now) {
+        failedUpdates.incrementAndGet();
+        GraphFailures failures = failuresPerGraph.computeIfAbsent(graphId, GraphFailures::new);
+        int consecutiveFailures = failures.recordFailure(now);
+        long backoffMillis = backoffMillis(consecutiveFailures);
+        if (consecutiveFailures == CIRCUIT_FAILURE_THRESHOLD) {
+            circuitOpens.incrementAndGet();
+            LOG.warn("Graph {} failed {} times in a row, opening its circuit.", graphId, consecutiveFailures);
+        }
+        LOG.info("Graph {} failed {} times in a row, backing off for {} seconds.", graphId, consecutiveFailures,
+                backoffMillis / 1000);
+        return now + backoffMillis;
+    }
+
+    static long backoffMillis(int consecutiveFailures) {
+        int doublings = Math.min(Math.max(0, consecutiveFailures - 1), 16);
+        return Math.min(BASE_BACKOFF_MS << doublings, MAX_BACKOFF_MS);
+    }
+
+    void recordRetry(boolean successful) {
+        retries.incrementAndGet();
+        if (successful) {
+            successfulRetries.incrementAndGet();
+        }
+    }
+
+    void recordReLogin(boolean successful) {
+        reLogins.incrementAndGet();
+        if (successful) {
+            successfulReLogins.incrementAndGet();
+        }
+    }
+
+    void recordBrowserRestart() {
+        browserRestarts.incrementAndGet();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject stats = new JSONObject();
+        stats.put("failedUpdates", failedUpdates.get());
+        stats.put("retries", retries.get());
+        stats.put("successfulRetries", successfulRetries.get());
+        stats.put("reLogins", reLogins.get());
+        stats.put("successfulReLogins", successfulReLogins.get());
+        stats.put("browserRestarts", browserRestarts.get());
+        stats.put("circuitOpens", circuitOpens.get());
+
+        JSONArray graphs = new JSONArray();
+        failuresPerGraph.values().forEach(failures -> graphs.add(failures.toJSON()));
+        stats.put("graphs", graphs);
+        return stats;
+    }
+
+    private static class GraphFailures {
+        private final String graphId;
+        private long totalFailures;
+        private int consecutiveFailures;
+        private long lastFailureTimestamp;
+
+        GraphFailures(String graphId) {
+            this.graphId = graphId;
+        }
+
+        synchronized boolean isCircuitOpen() {
+            return consecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD;
+        }
+
+        synchronized int recordFailure(long now) {
+            totalFailures++;
+            lastFailureTimestamp = now;
+            return ++consecutiveFailures;
+        }
+
+        /**
+         * @return true if the circuit was open
+         */
+        synchronized boolean recordSuccess() {
+            boolean wasOpen = isCircuitOpen();
+            consecutiveFailures = 0;
+            return wasOpen;
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject failures = new JSONObject();
+            failures.put("id", graphId);
+            failures.put("totalFailures", totalFailures);
+            failures.put("consecutiveFailures", consecutiveFailures);
+            failures.put("circuitOpen", isCircuitOpen());
+            failures.put("lastFailureTimestamp", lastFailureTimestamp);
+            return failures;
+        }
+    }
+
+}
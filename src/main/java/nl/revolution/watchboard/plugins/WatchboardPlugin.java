@@ -1,12 +1,41 @@
 package nl.revolution.watchboard.plugins;
 
+import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 
 public interface WatchboardPlugin {
 
     void performLogin();
 
-    void performUpdate();
+    /**
+     * Checks whether the browser is still logged in, after a saved session was restored into it. Should be cheaper
+     * than a login; plugins that can't tell log in again.
+     */
+    default boolean hasValidSession() {
+        return false;
+    }
+
+    /**
+     * Updates the image of a single graph of this plugin's type.
+     */
+    void performUpdate(Graph graph);
+
+    /**
+     * Starts refreshing a graph whose page is still loaded in the current window by an earlier update, without
+     * navigating to it again. Returns right away, so the pages of several graphs can refresh at the same time.
+     *
+     * @return false if the plugin can't refresh in place; the graph is then updated from scratch
+     */
+    default boolean startRefresh(Graph graph) {
+        return false;
+    }
+
+    /**
+     * Waits until a refresh started by {@link #startRefresh(Graph)} has completed, and updates the image of the graph.
+     */
+    default void captureRefresh(Graph graph) {
+        performUpdate(graph);
+    }
 
     void shutdown();
 
@@ -14,6 +43,8 @@ public interface WatchboardPlugin {
 
     String getName();
 
+    Graph.Type getGraphType();
+
     int getUpdateInterval();
 
 }
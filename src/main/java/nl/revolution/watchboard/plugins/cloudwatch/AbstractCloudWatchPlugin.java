@@ -4,6 +4,7 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.ReadinessProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.*;
@@ -15,6 +16,14 @@ import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
 
     private static final int MAX_GRAPH_LOADING_TIME_IN_SECONDS = 30;
+    protected static final String LOADING_ICON_SELECTOR = ".cwdb-loader-container";
+    private static final int MAX_LOGIN_ATTEMPTS = 3;
+    private static final long LOGIN_RETRY_BASE_BACKOFF_MS = 10 * 1000;
+    private static final String CONSOLE_HOME_URL = "https://console.aws.amazon.com/console/home";
+    private static final String SIGNIN_HOST = "signin.aws.amazon.com";
+    private static final String SIGNIN_TITLE = "Amazon Web Services Sign-In";
+    private static final String LOGIN_PAGE_ID = "AWS console login";
+    private static final long MAX_LOGIN_WAIT_MS = 5 * 1000;
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCloudWatchPlugin.class);
 
@@ -22,8 +31,6 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
     protected Plugin plugin;
     protected WebDriverWrapper wrappedDriver;
 
-    protected boolean stop;
-
     public AbstractCloudWatchPlugin() {
         LOG.info("Starting CloudWatch plugin.");
         plugin = Config.getInstance().getPlugin(getGraphType());
@@ -31,63 +38,68 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
 
     @Override
     public void performLogin() {
-        LOG.info("Logging in to AWS console.");
-        WebDriver driver = wrappedDriver.getDriver();
-        try {
-            driver.manage().window().setSize(new Dimension(800, 600));
-            driver.get(plugin.getLoginUrl());
-            doSleep(500);
-            driver.get("https://console.aws.amazon.com/console/home");
-            WebDriverUtils.verifyTitle(driver, "Amazon Web Services Sign-In", 3);
-            driver.findElement(By.id("username")).sendKeys(plugin.getUsername());
-            driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
-            driver.findElement(By.id("signin_button")).click();
-
-            // Wait for the login request to complete.
-            for (int i=0; i<10; i++) {
-                if (driver.getCurrentUrl().contains("signin.aws.amazon.com")) {
-                    // Still on the login page.
-                    LOG.debug("Waiting for login process to complete.");
-                    doSleep(500);
-                } else {
-                    break;
-                }
+        for (int attempt = 1; attempt <= MAX_LOGIN_ATTEMPTS; attempt++) {
+            try {
+                loginToConsole();
+                return;
+            } catch (Exception e) {
+                LOG.error("Error logging in to AWS console (attempt " + attempt + " of " + MAX_LOGIN_ATTEMPTS + "): ", e);
+            }
+            if (attempt < MAX_LOGIN_ATTEMPTS) {
+                long backoffMillis = LOGIN_RETRY_BASE_BACKOFF_MS << (attempt - 1);
+                LOG.info("Sleeping " + backoffMillis / 1000 + " seconds and trying again.");
+                doSleep(backoffMillis);
             }
-
-        } catch (Exception e) {
-            LOG.error("Error logging in to AWS console: ", e);
-            LOG.info("Sleeping 10 seconds and trying again.");
-            doSleep(10000);
-            wrappedDriver.restart();
-            performLogin();
-            return;
         }
+        // Leave restarting the browser to the update thread; other plugins may be using it.
+        throw new RuntimeException("Could not log in to AWS console after " + MAX_LOGIN_ATTEMPTS + " attempts.");
     }
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for " + getName() + " graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from AWS.");
-        Config.getInstance().getGrapsForType(getGraphType()).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
+    public boolean hasValidSession() {
+        try {
+            // Without a valid session, the console redirects to the sign-in page.
+            WebDriver driver = wrappedDriver.getDriver();
+            driver.get(CONSOLE_HOME_URL);
+            return !driver.getCurrentUrl().contains(SIGNIN_HOST) && !driver.getTitle().contains(SIGNIN_TITLE);
+        } catch (Exception e) {
+            LOG.warn("Error while checking AWS console session: " + e.getMessage());
+            return false;
+        }
+    }
 
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
+    private void loginToConsole() {
+        LOG.info("Logging in to AWS console.");
+        WebDriver driver = wrappedDriver.getDriver();
+        WebDriverUtils.setWindowSize(driver, 800, 600);
+        driver.get(plugin.getLoginUrl());
+        // Let the account sign-in page finish its redirects before moving on to the console.
+        ReadinessProbe.create()
+                .quietFor(500)
+                .timeout(MAX_LOGIN_WAIT_MS)
+                .await(driver, LOGIN_PAGE_ID);
+        driver.get(CONSOLE_HOME_URL);
+        WebDriverUtils.verifyTitle(driver, SIGNIN_TITLE, 3);
+        ReadinessProbe.create()
+                .present("#username")
+                .present("#password")
+                .present("#signin_button")
+                .timeout(MAX_LOGIN_WAIT_MS)
+                .await(driver, LOGIN_PAGE_ID);
+        driver.findElement(By.id("username")).sendKeys(plugin.getUsername());
+        driver.findElement(By.id("password")).sendKeys(plugin.getPassword());
+        driver.findElement(By.id("signin_button")).click();
+
+        // Wait for the login request to complete and the console to load.
+        ReadinessProbe.create()
+                .condition("location.host.indexOf('" + SIGNIN_HOST + "') < 0")
+                .timeout(MAX_LOGIN_WAIT_MS)
+                .await(driver, LOGIN_PAGE_ID);
     }
 
     protected void loadPageAsync(WebDriver driver, String url) {
         // Trick to speed up page loading.
-        WebDriverUtils.disableTimeouts(driver);
+        WebDriverUtils.disablePageLoadTimeout(driver);
         try {
             driver.get(url);
         } catch (TimeoutException ignored) {
@@ -95,36 +107,20 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
         }
 
         // Back to original timeout.
-        WebDriverUtils.enableTimeouts(driver);
+        WebDriverUtils.enablePageLoadTimeout(driver);
     }
 
-    protected boolean waitUntilGraphIsLoaded(String filename) {
-        long loadingStart = System.currentTimeMillis();
-        WebDriver driver = wrappedDriver.getDriver();
-        while (true) {
-            boolean isLoading = visibleLoadingIcons(driver) > 0;
-            if (!isLoading) {
-                doSleep(250);
-                long loadTimeMS = System.currentTimeMillis() - loadingStart;
-                LOG.debug("Graph {} loaded in {} ms.", filename, loadTimeMS);
-                break;
-            }
-
-            long waitingForMS = System.currentTimeMillis() - loadingStart;
-            LOG.debug("Waiting until {} is loaded (waited for {} ms).", filename, waitingForMS);
-            if ((waitingForMS / 1000) > MAX_GRAPH_LOADING_TIME_IN_SECONDS) {
-                LOG.error("Max waiting time of {} seconds for loading graph expired, giving up.", MAX_GRAPH_LOADING_TIME_IN_SECONDS);
-                return false;
-            }
-            doSleep(100);
-        }
-        return true;
+    protected boolean waitUntilGraphIsLoaded(String graphId) {
+        return ReadinessProbe.create()
+                .absent(LOADING_ICON_SELECTOR)
+                .quietFor(250)
+                .timeout(MAX_GRAPH_LOADING_TIME_IN_SECONDS * 1000)
+                .await(wrappedDriver.getDriver(), graphId);
     }
 
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -132,12 +128,4 @@ public abstract class AbstractCloudWatchPlugin implements WatchboardPlugin {
         this.wrappedDriver = driver;
     }
 
-
-    abstract Graph.Type getGraphType();
-    abstract void performSingleUpdate(Graph graph);
-
-    protected int visibleLoadingIcons(WebDriver driver) {
-        return WebDriverUtils.numberOfElements(driver, By.cssSelector(".cwdb-loader-container"));
-    }
-
 }
@@ -1,99 +1,162 @@
 package nl.revolution.watchboard.plugins.cloudwatch;
 
 import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.GraphSlice;
+import nl.revolution.watchboard.utils.ReadinessProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.Select;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.List;
 
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 import static nl.revolution.watchboard.utils.WebDriverUtils.takeScreenShot;
 
 public class CloudWatchDashboardPlugin extends AbstractCloudWatchPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudWatchDashboardPlugin.class);
 
-    protected void performSingleUpdate(Graph graph) {
-        boolean executedSuccessfully = getDashboardScreenshot(graph.getUrl(),
-                graph.getBrowserWidth(),
-                graph.getBrowserHeight(),
-                graph.getTimeRange(),
-                graph.getImagePath());
+    // The widgets of a dashboard, in the order slices refer to them by index.
+    private static final String WIDGET_SELECTOR = ".react-grid-layout > .react-grid-item";
+
+    // Clicks the refresh button of the dashboard, recognized by its label; returns whether one was found.
+    private static final String REFRESH_SCRIPT =
+            "var controls = document.querySelectorAll('button, a[role=\"button\"]');" +
+            "for (var i = 0; i < controls.length; i++) {" +
+            "  var label = controls[i].getAttribute('aria-label') || controls[i].getAttribute('title') || '';" +
+            "  if (/^refresh/i.test(label.trim())) { controls[i].click(); return true; }" +
+            "}" +
+            "return false;";
+
+    @Override
+    public void performUpdate(Graph graph) {
+        boolean executedSuccessfully = getDashboardScreenshot(graph);
         if (!executedSuccessfully) {
             // Something went wrong; start over.
-            throw new RuntimeException("CloudWatchDashboardPlugin performSingleUpdate failed.");
+            throw new RuntimeException("CloudWatchDashboardPlugin performUpdate failed.");
         }
     }
 
-    private boolean getDashboardScreenshot(String reportUrl, int width, int height, int timeRange, String filename) {
+    private boolean getDashboardScreenshot(Graph graph) {
+        String graphId = graph.getId();
         long start = System.currentTimeMillis();
         try {
             WebDriver driver = wrappedDriver.getDriver();
-            LOG.debug("Starting update of {}", filename);
-            driver.manage().window().setSize(new Dimension(width, height));
+            LOG.debug("Starting update of {}", graphId);
+            WebDriverUtils.setWindowSize(driver, graph.getBrowserWidth(), graph.getBrowserHeight());
             WebDriverUtils.fetchDummyPage(driver);
-            loadPageAsync(driver, reportUrl);
+            loadPageAsync(driver, graph.getUrl());
 
             // Set time zone.
-            WebElement timeRangeDropdown =  driver.findElement(By.cssSelector(".cwui-datepicker-dropdown-toggle"));
-            timeRangeDropdown.findElement(By.cssSelector("a[role=\"button\"]")).click();
-
-            WebElement datePickerDropDown = driver.findElement(By.cssSelector(".cwui-datepicker-dropdown"));
+            WebElement datePickerDropDown = openDatePicker(driver);
 
             // local timezone zetten
             WebElement timezoneSelector = datePickerDropDown.findElement(By.cssSelector(".cwui-datepicker-timezone-selector-select"));
             new Select(timezoneSelector).selectByVisibleText("Local timezone");
 
-            // timerange selecteren
-            datePickerDropDown.findElements(By.cssSelector(".cwui-datepicker-duration-row"))
-                    .get(1)
-                    .findElements(By.tagName("button")).stream()
-                    .filter(elem -> elem.getText().equals(String.valueOf(timeRange)))
-                    .findFirst()
-                    .orElseThrow(() -> new RuntimeException("Could not find button for timerage: " + timeRange))
-                    .click();
-
-            // Next step: wait for the individual graphs to be loaded.
-            // First, wait up to two seconds for 'loading' indicators to appear.
-            doSleep(250);
-            for (int i=0; i<20; i++) {
-                int loading = visibleLoadingIcons(driver);
-                if (loading > 0) {
-                    // Loading icon found; stop waiting.
-                    break;
-                }
-
-                // Loading icon not (yet) found, wait a bit and retry.
-                doSleep(100);
-            }
-
-            // Wait until all individual graphs are loaded.
-            boolean graphLoaded = waitUntilGraphIsLoaded(filename);
-            if (!graphLoaded) {
-                return false;
-            }
+            selectTimeRange(datePickerDropDown, graph.getTimeRange());
 
-            try {
-                takeScreenShot(driver, driver.findElement(By.className("react-grid-layout")), filename);
-            } catch (IOException e) {
-                LOG.error("Error while taking screenshot:", e);
+            if (!captureTimeRanges(driver, graph)) {
                 return false;
             }
         } catch (WebDriverException e) {
             LOG.error("Caught WebDriverException: ", e);
-            LOG.error("Error occurred while fetching report for {} ", filename);
+            LOG.error("Error occurred while fetching report for {} ", graphId);
             return false;
         }
         plugin.setTsLastUpdated(LocalDateTime.now());
         long end = System.currentTimeMillis();
-        LOG.info("Updating " + filename + " took " + (end - start) + " ms.");
+        LOG.info("Updating " + graphId + " took " + (end - start) + " ms.");
+        return true;
+    }
+
+    private WebElement openDatePicker(WebDriver driver) {
+        WebElement timeRangeDropdown =  driver.findElement(By.cssSelector(".cwui-datepicker-dropdown-toggle"));
+        timeRangeDropdown.findElement(By.cssSelector("a[role=\"button\"]")).click();
+        return driver.findElement(By.cssSelector(".cwui-datepicker-dropdown"));
+    }
+
+    private void selectTimeRange(WebElement datePickerDropDown, int timeRange) {
+        // timerange selecteren
+        datePickerDropDown.findElements(By.cssSelector(".cwui-datepicker-duration-row"))
+                .get(1)
+                .findElements(By.tagName("button")).stream()
+                .filter(elem -> elem.getText().equals(String.valueOf(timeRange)))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Could not find button for timerage: " + timeRange))
+                .click();
+    }
+
+    /**
+     * Captures the dashboard, which is loading the time range of the graph, and then captures it again at each of
+     * the additional time ranges of the graph, without loading the page again.
+     */
+    private boolean captureTimeRanges(WebDriver driver, Graph graph) {
+        if (!captureLoadingDashboard(driver, graph.getId(), graph.getSlices())) {
+            return false;
+        }
+        for (int timeRange : graph.getAdditionalTimeRanges()) {
+            selectTimeRange(openDatePicker(driver), timeRange);
+            if (!captureLoadingDashboard(driver, graph.getTimeRangeImageId(timeRange), graph.getSlices(timeRange))) {
+                return false;
+            }
+        }
         return true;
     }
 
+    /**
+     * Waits for the individual graphs of a dashboard that started loading data to be loaded, and takes the screenshot.
+     */
+    private boolean captureLoadingDashboard(WebDriver driver, String imageId, List<GraphSlice> slices) {
+        // First, wait up to two seconds for 'loading' indicators to appear.
+        ReadinessProbe.create()
+                .present(LOADING_ICON_SELECTOR)
+                .timeout(2000)
+                .optional()
+                .await(driver, imageId);
+
+        // Wait until all individual graphs are loaded.
+        boolean graphLoaded = waitUntilGraphIsLoaded(imageId);
+        if (!graphLoaded) {
+            return false;
+        }
+
+        takeScreenShot(driver, driver.findElement(By.className("react-grid-layout")), imageId, slices, WIDGET_SELECTOR);
+        return true;
+    }
+
+    /**
+     * The time range and time zone are picked in the page itself, so the dashboard isn't reloaded but refreshed
+     * with its own refresh button, which keeps them. A dashboard that is captured at several time ranges was left
+     * at its last one; selecting the time range of the graph again refreshes it.
+     */
+    @Override
+    public boolean startRefresh(Graph graph) {
+        WebDriver driver = wrappedDriver.getDriver();
+        if (!graph.getAdditionalTimeRanges().isEmpty()) {
+            selectTimeRange(openDatePicker(driver), graph.getTimeRange());
+            return true;
+        }
+        Object clicked = ((JavascriptExecutor) driver).executeScript(REFRESH_SCRIPT);
+        if (!Boolean.TRUE.equals(clicked)) {
+            LOG.info("No refresh button found on dashboard {}; loading it again.", graph.getId());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void captureRefresh(Graph graph) {
+        long start = System.currentTimeMillis();
+        if (!captureTimeRanges(wrappedDriver.getDriver(), graph)) {
+            throw new RuntimeException("CloudWatchDashboardPlugin captureRefresh failed.");
+        }
+        plugin.setTsLastUpdated(LocalDateTime.now());
+        LOG.info("Refreshing " + graph.getId() + " took " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
     @Override
     public String getName() {
         return "CloudWatchDashboard";
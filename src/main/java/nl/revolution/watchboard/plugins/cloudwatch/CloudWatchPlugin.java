@@ -6,37 +6,38 @@ import org.openqa.selenium.support.ui.Select;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
 
+import static nl.revolution.watchboard.utils.WebDriverUtils.setWindowSize;
 import static nl.revolution.watchboard.utils.WebDriverUtils.takeScreenShot;
 
 public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudWatchPlugin.class);
 
-    protected void performSingleUpdate(Graph graph) {
+    @Override
+    public void performUpdate(Graph graph) {
         boolean executedSuccessfully = getReportScreenshot(graph.getUrl(),
                 graph.getBrowserWidth(),
                 graph.getBrowserHeight(),
-                graph.getImagePath());
+                graph.getId());
         if (!executedSuccessfully) {
             // Something went wrong; start over.
-            throw new RuntimeException("CloudWatchPlugin performSingleUpdate failed.");
+            throw new RuntimeException("CloudWatchPlugin performUpdate failed.");
         }
     }
 
-    private boolean getReportScreenshot(String reportUrl, int width, int height, String filename) {
+    private boolean getReportScreenshot(String reportUrl, int width, int height, String graphId) {
         if (reportUrl == null) {
-            LOG.error("reportUrl is null for filename " + filename);
+            LOG.error("reportUrl is null for graph " + graphId);
             return true;
         }
 
         long start = System.currentTimeMillis();
         try {
             WebDriver driver = wrappedDriver.getDriver();
-            LOG.debug("Starting update of {}", filename);
-            driver.manage().window().setSize(new Dimension(width, height));
+            LOG.debug("Starting update of {}", graphId);
+            setWindowSize(driver, width, height);
 
             // Perform dummy get to localhost to clear browser. This provides a workaround for rendering of an
             // axis that is not used.
@@ -59,25 +60,20 @@ public class CloudWatchPlugin extends AbstractCloudWatchPlugin {
             timeRangeDropdown.findElement(By.cssSelector("a[role=\"button\"]")).click();
 
             // Wait until loading is finished.
-            boolean graphLoaded = waitUntilGraphIsLoaded(filename);
+            boolean graphLoaded = waitUntilGraphIsLoaded(graphId);
             if (!graphLoaded) {
                 return false;
             }
 
-            try {
-                takeScreenShot(driver, driver.findElement(By.cssSelector(".cwdb-standalone-graph-container-graph")), filename);
-            } catch (IOException e) {
-                LOG.error("Error while taking screenshot:", e);
-                return false;
-            }
+            takeScreenShot(driver, driver.findElement(By.cssSelector(".cwdb-standalone-graph-container-graph")), graphId);
         } catch (WebDriverException e) {
             LOG.error("Caught WebDriverException: ", e);
-            LOG.error("Error occurred while fetching report for {} ", filename);
+            LOG.error("Error occurred while fetching report for {} ", graphId);
             return false;
         }
         plugin.setTsLastUpdated(LocalDateTime.now());
         long end = System.currentTimeMillis();
-        LOG.info("Updating " + filename + " took " + (end - start) + " ms.");
+        LOG.info("Updating " + graphId + " took " + (end - start) + " ms.");
         return true;
     }
 
@@ -2,26 +2,26 @@ package nl.revolution.watchboard.plugins.kibana;
 
 import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.GraphSlice;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.ReadinessProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
-
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
+import java.util.List;
 
 public class KibanaPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(KibanaPlugin.class);
+    // The panels of a dashboard, in the order slices refer to them by index.
+    private static final String WIDGET_SELECTOR = "dashboard-grid .gs-w";
     private final Graph.Type type;
 
-    private boolean stop;
-
     private Plugin plugin;
     private WebDriverWrapper wrappedDriver;
 
@@ -36,7 +36,7 @@ public class KibanaPlugin implements WatchboardPlugin {
         LOG.info("Logging in to Kibana.");
         try {
             WebDriver driver = wrappedDriver.getDriver();
-            driver.manage().window().setSize(new Dimension(2000, 1000));
+            WebDriverUtils.setWindowSize(driver, 2000, 1000);
             driver.get(plugin.getLoginUrl());
             WebDriverUtils.verifyTitle(driver, "Kibana", 10);
         } catch (Exception e) {
@@ -48,99 +48,74 @@ public class KibanaPlugin implements WatchboardPlugin {
 
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Kibana graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Kibana.");
-        Config.getInstance().getGrapsForType(type).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
-
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
-    }
-
-
-    private void performSingleUpdate(Graph graph) {
+    public void performUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
-        driver.manage().window().setSize(new Dimension(2000, 1000));
+        WebDriverUtils.setWindowSize(driver, 2000, 1000);
         WebDriverUtils.fetchDummyPage(driver);
 
         driver.get(graph.getUrl());
 
-        for (int i=0; i<30; i++) {
-            String currentUrl = driver.getCurrentUrl();
-            if (currentUrl.equals(graph.getUrl())) {
-                // URL loaded.
-                break;
-            }
-            doSleep(500);
-        }
+        captureLoadedPage(graph);
+    }
 
-        // Wait until dashboard panels are rendered.
-        int size = 0;
-        for (int i=0; i<60; i++) {
-            size = WebDriverUtils.numberOfElements(driver, By.tagName("visualize"));
-            if (size > 0) {
-                break;
-            }
-            doSleep(500);
-        }
+    /**
+     * The dashboard state is part of the URL, so a reload shows the same dashboard with fresh data.
+     */
+    @Override
+    public boolean startRefresh(Graph graph) {
+        WebDriverUtils.startReload(wrappedDriver.getDriver());
+        return true;
+    }
 
-        // If no items were found, skip screenshot.
-        if (size == 0) {
-            LOG.info("No Kibana visualizations found; skipping screenshot.");
-            try {
-                WebDriverUtils.takeScreenShot(driver, driver.findElement(By.tagName("html")), graph.getImagePath()+"-debug.png");
-            } catch (IOException e) {
-                LOG.error("Error while taking debug screenshot for " + graph.getId() + ": ", e);
-            }
-            return;
+    @Override
+    public void captureRefresh(Graph graph) {
+        WebDriver driver = wrappedDriver.getDriver();
+        if (!WebDriverUtils.awaitReload(driver, 30 * 1000)) {
+            throw new RuntimeException("Kibana dashboard " + graph.getId() + " did not reload.");
         }
+        captureLoadedPage(graph);
+    }
 
-        // Wait until a visualization chart is present.
-        for (int i=0; i<20; i++) {
-            size = WebDriverUtils.numberOfElements(driver, By.className("visualize-chart"));
-            // LOG.info("visualize-chart size: " + size);
-            if (size > 0) {
-                break;
-            }
-            doSleep(500);
+    private void captureLoadedPage(Graph graph) {
+        WebDriver driver = wrappedDriver.getDriver();
+
+        // Wait until dashboard panels are rendered.
+        boolean panelsRendered = ReadinessProbe.create()
+                .present("visualize")
+                .timeout(30 * 1000)
+                .await(driver, graph.getId());
+
+        // If no items were found, fail the update so it is retried.
+        if (!panelsRendered) {
+            WebDriverUtils.saveDebugScreenShot(driver, graph.getId() + "-debug");
+            throw new RuntimeException("No Kibana visualizations found for " + graph.getId() + ".");
         }
 
-        // Wait two more seconds to allow for rendering to complete ...
-        doSleep(2000);
+        // Wait until a visualization chart is present and has finished rendering.
+        ReadinessProbe.create()
+                .present(".visualize-chart")
+                .quietFor(500)
+                .timeout(10 * 1000)
+                .await(driver, graph.getId());
 
-        getKibanaScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
+        getKibanaScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getId(), graph.getSlices());
 
         plugin.setTsLastUpdated(LocalDateTime.now());
     }
 
 
-    private void getKibanaScreenshot(int width, int height, String filename) {
+    private void getKibanaScreenshot(int width, int height, String graphId, List<GraphSlice> slices) {
         WebDriver driver = wrappedDriver.getDriver();
-        driver.manage().window().setSize(new Dimension(width, height));
+        WebDriverUtils.setWindowSize(driver, width, height);
 
-        try {
-            WebDriverUtils.takeScreenShot(driver, driver.findElement(By.tagName("dashboard-grid")), filename);
-        } catch (IOException e) {
-            LOG.error("Error while taking screenshot: ", e);
-        }
+        WebDriverUtils.takeScreenShot(driver, driver.findElement(By.tagName("dashboard-grid")), graphId, slices,
+                WIDGET_SELECTOR);
     }
 
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -153,6 +128,11 @@ public class KibanaPlugin implements WatchboardPlugin {
         return "Kibana";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return type;
+    }
+
     @Override
     public int getUpdateInterval() {
         return plugin.getUpdateIntervalSeconds();
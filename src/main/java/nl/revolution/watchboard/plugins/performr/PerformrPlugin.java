@@ -4,26 +4,24 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.ReadinessProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
 import org.openqa.selenium.By;
-import org.openqa.selenium.Dimension;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
 
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
-
 public class PerformrPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(PerformrPlugin.class);
-
-    private boolean stop;
+    private static final String COMPONENT_SELECTION_TEXT = "Selecteer component";
+    private static final String ALL_COMPONENTS_TEXT = "Alle";
+    private static final String LOGIN_PAGE_ID = "Performr login";
 
     private Plugin performrPlugin;
     private WebDriverWrapper wrappedDriver;
@@ -40,20 +38,28 @@ public class PerformrPlugin implements WatchboardPlugin {
         try {
             WebDriver driver = wrappedDriver.getDriver();
 
-            driver.manage().window().setSize(new Dimension(2000, 1000));
+            WebDriverUtils.setWindowSize(driver, 2000, 1000);
 
             driver.get(performrPlugin.getLoginUrl());
+            ReadinessProbe.create()
+                    .present("#username")
+                    .present("#password")
+                    .timeout(10 * 1000)
+                    .await(driver, LOGIN_PAGE_ID);
 
             driver.findElement(By.id("username")).sendKeys(performrPlugin.getUsername());
-            doSleep(1000);
             driver.findElement(By.id("password")).sendKeys(performrPlugin.getPassword());
-            doSleep(1000);
 
             driver.findElements(By.tagName("input")).stream().forEach(input -> {
                 if ("Inloggen".equals(input.getAttribute("value"))) {
                     input.click();
                 }
             });
+            // The page after logging in no longer has the login form.
+            ReadinessProbe.create()
+                    .absent("#password")
+                    .timeout(10 * 1000)
+                    .await(driver, LOGIN_PAGE_ID);
         } catch (Exception e) {
             LOG.error("Error while logging in to Performr: ", e);
         }
@@ -64,100 +70,77 @@ public class PerformrPlugin implements WatchboardPlugin {
 
 
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Performr graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Performr.");
-        Config.getInstance().getGrapsForType(Graph.Type.PERFORMR).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph, false);
-                }
-            }
-        );
-
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
-    }
-
-
-    private void performSingleUpdate(Graph graph, boolean isRetry) {
+    public void performUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
-        driver.manage().window().setSize(new Dimension(2000, 1000));
+        WebDriverUtils.setWindowSize(driver, 2000, 1000);
         driver.get(performrPlugin.getLoginUrl());
 
-        long loadingStart = System.currentTimeMillis();
-        boolean found = false;
-        while (!found) {
-            List<WebElement> spans = driver.findElements(By.tagName("span"));
-            for (WebElement span : spans) {
-                if ("Selecteer component".equals(span.getText())) {
-                    span.click();
-                    found = true;
-                }
-            }
-            // LOG.debug("Did not find Performr component selection (yet), waiting.");
-            doSleep(1000);
-            long waitingForMS = System.currentTimeMillis() - loadingStart;
-            if ((waitingForMS / 1000) > 10) {
-                // Waited for over 10 seconds; break.
-                LOG.error("Timed out waiting for Performr component selection to appear.");
-
-                // Re-login to fix issue.
-                performLogin();
-                if (!isRetry) {
-                    // if this isn't a retry already, try once again.
-                    performSingleUpdate(graph, true);
-                }
-                return;
-            }
-
+        boolean found = ReadinessProbe.create()
+                .condition(containsElementWithText("span", COMPONENT_SELECTION_TEXT))
+                .timeout(10 * 1000)
+                .await(driver, graph.getId());
+        if (!found) {
+            // Retrying and logging in again is up to the update thread.
+            throw new RuntimeException("Timed out waiting for Performr component selection to appear.");
         }
+        driver.findElements(By.tagName("span")).stream()
+                .filter(span -> COMPONENT_SELECTION_TEXT.equals(span.getText()))
+                .forEach(WebElement::click);
+        ReadinessProbe.create()
+                .condition(containsElementWithText("label", ALL_COMPONENTS_TEXT))
+                .quietFor(250)
+                .timeout(10 * 1000)
+                .await(driver, graph.getId());
 
         // Disable all components.
-        getComponentCheckbox("Alle").click();
-        doSleep(500);
+        getComponentCheckbox(ALL_COMPONENTS_TEXT).click();
+        awaitHeatmapUpdate(graph.getId());
 
         // Select project components.
         graph.getComponents().stream().forEach(component -> {
             WebElement componentCheckbox = getComponentCheckbox(component);
             if (componentCheckbox != null) {
                 componentCheckbox.click();
-                doSleep(500);
+                awaitHeatmapUpdate(graph.getId());
             } else {
                 LOG.error("Component '" + component + "' not found!");
             }
         });
 
-        getPerformrScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
+        getPerformrScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getId());
 
         performrPlugin.setTsLastUpdated(LocalDateTime.now());
     }
 
 
-    private void getPerformrScreenshot(int width, int height, String filename) {
+    private void getPerformrScreenshot(int width, int height, String graphId) {
         WebDriver driver = wrappedDriver.getDriver();
 
-        // Resize fix.
-        Dimension size = driver.manage().window().getSize();
-        driver.manage().window().setSize(new Dimension(200, size.getHeight()));
-        driver.manage().window().setSize(size);
+        // Resize fix: a narrow window forces the heatmap to lay out again at the final size.
+        WebDriverUtils.setWindowSize(driver, 200, height);
+        WebDriverUtils.setWindowSize(driver, width, height);
+        ReadinessProbe.create()
+                .present("#heatmap-holder")
+                .quietFor(250)
+                .timeout(5 * 1000)
+                .await(driver, graphId);
+        WebDriverUtils.takeScreenShot(driver, driver.findElement(By.id("heatmap-holder")), graphId);
 
-        driver.manage().window().setSize(new Dimension(width, height));
-        doSleep(500);
-        try {
-            WebDriverUtils.takeScreenShot(driver, driver.findElement(By.id("heatmap-holder")), filename);
-        } catch (IOException e) {
-            LOG.error("Error while taking screenshot: ", e);
-        }
+    }
 
+
+    private void awaitHeatmapUpdate(String graphId) {
+        ReadinessProbe.create()
+                .quietFor(300)
+                .timeout(5 * 1000)
+                .await(wrappedDriver.getDriver(), graphId);
     }
 
+    private static String containsElementWithText(String tagName, String text) {
+        return "Array.prototype.some.call(document.getElementsByTagName('" + tagName + "'), "
+                + "function(element) { return element.textContent.trim() === '" + text + "'; })";
+    }
 
     private WebElement getComponentCheckbox(String labelText) {
         WebDriver driver = wrappedDriver.getDriver();
@@ -175,7 +158,6 @@ public class PerformrPlugin implements WatchboardPlugin {
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -188,6 +170,11 @@ public class PerformrPlugin implements WatchboardPlugin {
         return "Performr";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return Graph.Type.PERFORMR;
+    }
+
     @Override
     public int getUpdateInterval() {
         return performrPlugin.getUpdateIntervalSeconds();
@@ -4,24 +4,21 @@ import nl.revolution.watchboard.Config;
 import nl.revolution.watchboard.data.Graph;
 import nl.revolution.watchboard.data.Plugin;
 import nl.revolution.watchboard.plugins.WatchboardPlugin;
+import nl.revolution.watchboard.utils.ReadinessProbe;
 import nl.revolution.watchboard.utils.WebDriverUtils;
 import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.apache.commons.lang3.StringUtils;
 import org.openqa.selenium.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
 
-import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
-
 public class SonarPlugin implements WatchboardPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(SonarPlugin.class);
 
-    private boolean stop;
-
     private Plugin plugin;
     private WebDriverWrapper wrappedDriver;
 
@@ -35,7 +32,7 @@ public class SonarPlugin implements WatchboardPlugin {
         LOG.info("Logging in to Sonar.");
         try {
             WebDriver driver = wrappedDriver.getDriver();
-            driver.manage().window().setSize(new Dimension(2000, 1000));
+            WebDriverUtils.setWindowSize(driver, 2000, 1000);
             WebDriverUtils.fetchDummyPage(driver);
             driver.get(plugin.getLoginUrl());
             WebDriverUtils.verifyTitle(driver, "SonarQube", 10);
@@ -50,39 +47,56 @@ public class SonarPlugin implements WatchboardPlugin {
         LOG.info("Logged in to Sonar.");
     }
 
-
     @Override
-    public void performUpdate() {
-        long start = System.currentTimeMillis();
-        LOG.info("Performing update for Sonar graphs.");
-
-        // Check for config file update.
-        Config.getInstance().checkForConfigUpdate();
-
-        // Generate reports for all graphs for all dashboards.
-        LOG.info("Updating data from Sonar.");
-        Config.getInstance().getGrapsForType(Graph.Type.SONAR).stream().forEach(graph -> {
-                if (!stop) {
-                    performSingleUpdate(graph);
-                }
-            }
-        );
-
-        long end = System.currentTimeMillis();
-        LOG.info("Finished updating " + getName() + " graphs. Update took " + ((end-start)/1000) + " seconds.");
+    public boolean hasValidSession() {
+        // The login URL is either the Sonar root or its /sessions/new page; the web API lives at the root.
+        String baseUrl = StringUtils.removeEnd(StringUtils.substringBefore(plugin.getLoginUrl(), "/sessions"), "/");
+        try {
+            WebDriver driver = wrappedDriver.getDriver();
+            driver.get(baseUrl + "/api/users/current");
+            return driver.getPageSource().contains("\"isLoggedIn\":true");
+        } catch (Exception e) {
+            LOG.warn("Error while checking Sonar session: " + e.getMessage());
+            return false;
+        }
     }
 
 
-    private void performSingleUpdate(Graph graph) {
+    @Override
+    public void performUpdate(Graph graph) {
         LOG.debug("Starting update of {}.", graph.getImagePath());
         WebDriver driver = wrappedDriver.getDriver();
-        driver.manage().window().setSize(new Dimension(1500, 1000));
+        WebDriverUtils.setWindowSize(driver, 1500, 1000);
 
         WebDriverUtils.fetchDummyPage(driver);
         driver.get(graph.getUrl());
 
+        captureLoadedPage(graph);
+    }
+
+    @Override
+    public boolean startRefresh(Graph graph) {
+        WebDriverUtils.startReload(wrappedDriver.getDriver());
+        return true;
+    }
+
+    @Override
+    public void captureRefresh(Graph graph) {
+        WebDriver driver = wrappedDriver.getDriver();
+        if (!WebDriverUtils.awaitReload(driver, 30 * 1000)) {
+            throw new RuntimeException("Sonar page " + graph.getId() + " did not reload.");
+        }
+        captureLoadedPage(graph);
+    }
+
+    private void captureLoadedPage(Graph graph) {
+        WebDriver driver = wrappedDriver.getDriver();
+
         // Wait for the screen to load.
-        doSleep(500);
+        ReadinessProbe.create()
+                .present(".overview .overview-main .overview-domains-list .overview-card")
+                .quietFor(250)
+                .await(driver, graph.getId());
 
         // Fix flexbox CSS issues
         FlexboxCssFix.flexboxFix(driver);
@@ -101,29 +115,27 @@ public class SonarPlugin implements WatchboardPlugin {
             executor.executeScript("arguments[0].style.display='none';", tile);
         }
 
-        // Wait for the screen to load.
-        doSleep(500);
+        // Wait for the layout to settle.
+        ReadinessProbe.create()
+                .quietFor(250)
+                .timeout(5 * 1000)
+                .await(driver, graph.getId());
 
-        getSonarScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getImagePath());
+        getSonarScreenshot(graph.getBrowserWidth(), graph.getBrowserHeight(), graph.getId());
 
         plugin.setTsLastUpdated(LocalDateTime.now());
     }
 
 
-    private void getSonarScreenshot(int width, int height, String filename) {
+    private void getSonarScreenshot(int width, int height, String graphId) {
         WebDriver driver = wrappedDriver.getDriver();
-        driver.manage().window().setSize(new Dimension(width, height));
-        try {
-            WebDriverUtils.takeScreenShot(driver, driver.findElement(By.className("overview-domains-list")), filename);
-        } catch (IOException e) {
-            LOG.error("Error while taking screenshot: ", e);
-        }
+        WebDriverUtils.setWindowSize(driver, width, height);
+        WebDriverUtils.takeScreenShot(driver, driver.findElement(By.className("overview-domains-list")), graphId);
     }
 
     @Override
     public void shutdown() {
         LOG.info("Shutting down.");
-        this.stop = true;
     }
 
     @Override
@@ -136,6 +148,11 @@ public class SonarPlugin implements WatchboardPlugin {
         return "Sonar";
     }
 
+    @Override
+    public Graph.Type getGraphType() {
+        return Graph.Type.SONAR;
+    }
+
     @Override
     public int getUpdateInterval() {
         return plugin.getUpdateIntervalSeconds();
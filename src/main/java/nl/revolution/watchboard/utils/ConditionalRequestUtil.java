@@ -0,0 +1,62 @@
+package nl.revolution.watchboard.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+public final class ConditionalRequestUtil {
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String WEAK_PREFIX = "W/";
+    private static final String GZIP_SUFFIX = "-gzip\"";
+
+    private ConditionalRequestUtil() {
+        // May not be instantiated
+    }
+
+    /**
+     * Checks whether the client already has the representation with the given ETag. ETags that were suffixed
+     * by the gzip handler are matched as well.
+     *
+     * @param request the originating request
+     * @param eTag the (quoted) ETag of the current representation
+     * @return true if one of the If-None-Match candidates matches
+     */
+    public static boolean matchesETag(HttpServletRequest request, String eTag) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (StringUtils.isEmpty(ifNoneMatch)) {
+            return false;
+        }
+        for (String candidate : StringUtils.split(ifNoneMatch, ",")) {
+            candidate = StringUtils.removeStart(candidate.trim(), WEAK_PREFIX);
+            if (candidate.endsWith(GZIP_SUFFIX)) {
+                candidate = candidate.substring(0, candidate.length() - GZIP_SUFFIX.length()) + "\"";
+            }
+            if ("*".equals(candidate) || eTag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates the conditional headers of a GET request. If-None-Match takes precedence over If-Modified-Since.
+     *
+     * @param request the originating request
+     * @param eTag the (quoted) ETag of the current representation
+     * @param lastModified the last modification time of the current representation, in milliseconds
+     * @return true if a 304 Not Modified response can be sent
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        if (request.getHeader(HEADER_IF_NONE_MATCH) != null) {
+            return matchesETag(request, eTag);
+        }
+        long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+}
@@ -0,0 +1,189 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Waits until a page is ready to be captured, without fixed sleeps. A probe declares what "ready" means for a page:
+ * elements that have to be present, elements that have to be gone (like loading indicators) and arbitrary
+ * JavaScript conditions. On top of that, the page must have finished loading, have no XHR requests in flight and its
+ * DOM must not have changed for the quiet period.
+ *
+ * The waiting happens in the browser: a single async script observes DOM mutations and evaluates the conditions,
+ * and returns as soon as the page is ready. The probes of a capture together make up its time to ready, which is
+ * recorded per graph in {@link ReadinessStats}.
+ */
+public class ReadinessProbe {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessProbe.class);
+
+    // Stay below the script timeout set by WebDriverUtils.enableTimeouts().
+    private static final long MAX_TIMEOUT_MS = (WebDriverUtils.WEBDRIVER_TIMEOUT_SECONDS - 5) * 1000L;
+    private static final long DEFAULT_TIMEOUT_MS = 30 * 1000;
+
+    static final String PROBE_SCRIPT =
+            "var options = arguments[0];" +
+            "var callback = arguments[arguments.length - 1];" +
+            "var start = new Date().getTime();" +
+            "var lastMutation = start;" +
+            "var lastElementCount = -1;" +
+            // Count XHR requests in flight, from now on.
+            "var xhr = window.XMLHttpRequest && XMLHttpRequest.prototype;" +
+            "if (xhr && !xhr.__watchboardSend) {" +
+            "  xhr.__watchboardSend = xhr.send;" +
+            "  window.__watchboardPendingRequests = 0;" +
+            "  xhr.send = function() {" +
+            "    var request = this, done = false;" +
+            "    window.__watchboardPendingRequests++;" +
+            "    request.addEventListener('readystatechange', function() {" +
+            "      if (request.readyState === 4 && !done) { done = true; window.__watchboardPendingRequests--; }" +
+            "    });" +
+            "    return xhr.__watchboardSend.apply(request, arguments);" +
+            "  };" +
+            "}" +
+            "var Observer = window.MutationObserver || window.WebKitMutationObserver;" +
+            "var observer = Observer ? new Observer(function() { lastMutation = new Date().getTime(); }) : null;" +
+            "if (observer) {" +
+            "  observer.observe(document.documentElement, { childList: true, subtree: true, characterData: true });" +
+            "}" +
+            "function conditionsMet() {" +
+            "  var i;" +
+            "  for (i = 0; i < options.present.length; i++) {" +
+            "    if (!document.querySelector(options.present[i])) { return false; }" +
+            "  }" +
+            "  for (i = 0; i < options.absent.length; i++) {" +
+            "    if (document.querySelector(options.absent[i])) { return false; }" +
+            "  }" +
+            "  for (i = 0; i < options.conditions.length; i++) {" +
+            "    if (!new Function('return (' + options.conditions[i] + ');')()) { return false; }" +
+            "  }" +
+            "  return true;" +
+            "}" +
+            "function check() {" +
+            "  var now = new Date().getTime();" +
+            "  if (!observer) {" +
+            // Without MutationObserver, a changing number of elements is the best sign of a changing page.
+            "    var elementCount = document.getElementsByTagName('*').length;" +
+            "    if (elementCount !== lastElementCount) { lastElementCount = elementCount; lastMutation = now; }" +
+            "  }" +
+            "  var met = document.readyState === 'complete' && conditionsMet();" +
+            "  var ready = met && !window.__watchboardPendingRequests && now - lastMutation >= options.quietMillis;" +
+            "  if (ready || now - start >= options.timeoutMillis) {" +
+            "    if (observer) { observer.disconnect(); }" +
+            "    callback({ ready: ready, conditionsMet: met, elapsed: now - start });" +
+            "    return;" +
+            "  }" +
+            "  setTimeout(check, 50);" +
+            "}" +
+            "check();";
+
+    private final List<String> present = new ArrayList<>();
+    private final List<String> absent = new ArrayList<>();
+    private final List<String> conditions = new ArrayList<>();
+    private long quietMillis;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MS;
+    private boolean optional;
+
+    public static ReadinessProbe create() {
+        return new ReadinessProbe();
+    }
+
+    /**
+     * The page is only ready when an element matches the given CSS selector.
+     */
+    public ReadinessProbe present(String cssSelector) {
+        present.add(cssSelector);
+        return this;
+    }
+
+    /**
+     * The page is only ready when no element matches the given CSS selector.
+     */
+    public ReadinessProbe absent(String cssSelector) {
+        absent.add(cssSelector);
+        return this;
+    }
+
+    /**
+     * The page is only ready when the given JavaScript expression is true.
+     */
+    public ReadinessProbe condition(String jsExpression) {
+        conditions.add(jsExpression);
+        return this;
+    }
+
+    /**
+     * The page is only ready when its DOM hasn't changed for the given time, for example to let charts render.
+     */
+    public ReadinessProbe quietFor(long millis) {
+        quietMillis = millis;
+        return this;
+    }
+
+    public ReadinessProbe timeout(long millis) {
+        timeoutMillis = Math.min(millis, MAX_TIMEOUT_MS);
+        return this;
+    }
+
+    /**
+     * The page doesn't have to get ready, for example when waiting for loading indicators that may never show up.
+     * A timeout is normal then: it isn't logged as a warning and doesn't count for the time to ready.
+     */
+    public ReadinessProbe optional() {
+        optional = true;
+        return this;
+    }
+
+    /**
+     * Waits until the page is ready, or the timeout expires.
+     *
+     * @return true if the conditions were met; a page that met its conditions but kept changing or loading until the
+     * timeout also counts as ready
+     */
+    public boolean await(WebDriver driver, String graphId) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("present", present);
+        options.put("absent", absent);
+        options.put("conditions", conditions);
+        options.put("quietMillis", quietMillis);
+        options.put("timeoutMillis", timeoutMillis);
+
+        long start = System.currentTimeMillis();
+        boolean ready;
+        boolean conditionsMet;
+        try {
+            Object result = ((JavascriptExecutor) driver).executeAsyncScript(PROBE_SCRIPT, options);
+            Map<?, ?> resultMap = result instanceof Map ? (Map<?, ?>) result : new HashMap<>();
+            ready = Boolean.TRUE.equals(resultMap.get("ready"));
+            conditionsMet = Boolean.TRUE.equals(resultMap.get("conditionsMet"));
+        } catch (Exception e) {
+            LOG.error("Error while waiting for {} to be ready: {}", graphId, e.getMessage());
+            ready = false;
+            conditionsMet = false;
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        if (ready) {
+            LOG.debug("{} ready after {} ms.", graphId, elapsed);
+        } else if (conditionsMet) {
+            LOG.info("{} kept changing for {} ms, continuing anyway.", graphId, elapsed);
+        } else if (optional) {
+            LOG.debug("{} not ready after {} ms, which is fine.", graphId, elapsed);
+        } else {
+            LOG.warn("{} not ready after {} ms (present: {}, absent: {}, conditions: {}).", graphId, elapsed, present,
+                    absent, conditions);
+        }
+        if (!optional) {
+            ReadinessStats.getInstance().probeFinished(ready || conditionsMet);
+        }
+        return ready || conditionsMet;
+    }
+
+}
@@ -0,0 +1,108 @@
+package nl.revolution.watchboard.utils;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time it takes until the pages of each graph are ready to be captured. A capture usually waits for its page with
+ * several {@link ReadinessProbe}s; its time to ready runs from the start of the capture until the last probe
+ * finished, and it only counts as ready if all of its probes were.
+ */
+public class ReadinessStats {
+
+    private static final ReadinessStats instance = new ReadinessStats();
+
+    private final Map<String, GraphReadiness> readinessPerGraph = new ConcurrentHashMap<>();
+    // Captures are done by one browser thread each.
+    private final ThreadLocal<Capture> currentCapture = new ThreadLocal<>();
+
+    public static ReadinessStats getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts measuring the capture of the given graph by the current thread.
+     */
+    public void startCapture(String graphId) {
+        currentCapture.set(new Capture(graphId, System.currentTimeMillis()));
+    }
+
+    /**
+     * Records the time to ready of the capture of the current thread, if it used any probes.
+     */
+    public void finishCapture() {
+        Capture capture = currentCapture.get();
+        currentCapture.remove();
+        if (capture != null && capture.lastProbeEnd > 0) {
+            readinessPerGraph.computeIfAbsent(capture.graphId, GraphReadiness::new)
+                    .record(capture.lastProbeEnd - capture.start, capture.ready);
+        }
+    }
+
+    /**
+     * Called by a probe of the current thread; probes outside of a capture, like while logging in, aren't recorded.
+     */
+    void probeFinished(boolean ready) {
+        Capture capture = currentCapture.get();
+        if (capture != null) {
+            capture.lastProbeEnd = System.currentTimeMillis();
+            capture.ready &= ready;
+        }
+    }
+
+    public JSONArray toJSON() {
+        JSONArray graphs = new JSONArray();
+        readinessPerGraph.values().forEach(readiness -> graphs.add(readiness.toJSON()));
+        return graphs;
+    }
+
+    private static class Capture {
+        private final String graphId;
+        private final long start;
+        private long lastProbeEnd;
+        private boolean ready = true;
+
+        Capture(String graphId, long start) {
+            this.graphId = graphId;
+            this.start = start;
+        }
+    }
+
+    private static class GraphReadiness {
+        private final String graphId;
+        private long captures;
+        private long timeouts;
+        private long totalMillis;
+        private long lastMillis;
+        private long maxMillis;
+
+        GraphReadiness(String graphId) {
+            this.graphId = graphId;
+        }
+
+        synchronized void record(long elapsedMillis, boolean ready) {
+            captures++;
+            if (!ready) {
+                timeouts++;
+            }
+            totalMillis += elapsedMillis;
+            lastMillis = elapsedMillis;
+            maxMillis = Math.max(maxMillis, elapsedMillis);
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject readiness = new JSONObject();
+            readiness.put("id", graphId);
+            readiness.put("captures", captures);
+            readiness.put("timeouts", timeouts);
+            readiness.put("averageMillis", captures == 0 ? 0 : totalMillis / captures);
+            readiness.put("lastMillis", lastMillis);
+            readiness.put("maxMillis", maxMillis);
+            return readiness;
+        }
+    }
+
+}
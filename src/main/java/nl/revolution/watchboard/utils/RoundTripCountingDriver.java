@@ -0,0 +1,83 @@
+package nl.revolution.watchboard.utils;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PhantomJS driver that counts every command sent to the browser, and remembers the state it last set, so that
+ * {@link WebDriverUtils} can skip commands that wouldn't change anything.
+ *
+ * A driver is only used by the browser thread that owns it; the counter is only read by others.
+ */
+class RoundTripCountingDriver extends PhantomJSDriver {
+
+    enum Timeout {
+        PAGE_LOAD,
+        SCRIPT,
+        IMPLICIT_WAIT
+    }
+
+    // Not initialized in the declaration: the super constructor already sends commands.
+    private volatile long roundTrips;
+    private Map<Timeout, Integer> timeoutSeconds;
+    // Every window has its own size; the key of the first window is null.
+    private Map<String, Dimension> windowSizes;
+    private String currentWindow;
+
+    RoundTripCountingDriver(Capabilities capabilities) {
+        super(capabilities);
+    }
+
+    @Override
+    protected Response execute(String driverCommand, Map<String, ?> parameters) {
+        roundTrips++;
+        Response response = super.execute(driverCommand, parameters);
+        if (DriverCommand.SWITCH_TO_WINDOW.equals(driverCommand)) {
+            currentWindow = String.valueOf(parameters.get("name"));
+        } else if (DriverCommand.CLOSE.equals(driverCommand) && windowSizes != null) {
+            windowSizes.remove(currentWindow);
+        }
+        return response;
+    }
+
+    long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * @return true if the timeout wasn't known to have the given value yet
+     */
+    boolean changeTimeout(Timeout timeout, int seconds) {
+        if (timeoutSeconds == null) {
+            timeoutSeconds = new EnumMap<>(Timeout.class);
+        }
+        Integer previous = timeoutSeconds.put(timeout, seconds);
+        return previous == null || previous != seconds;
+    }
+
+    /**
+     * @return true if the window wasn't known to have the given size yet
+     */
+    boolean changeWindowSize(Dimension size) {
+        if (windowSizes == null) {
+            windowSizes = new HashMap<>();
+        }
+        return !size.equals(windowSizes.put(currentWindow, size));
+    }
+
+    /**
+     * Forgets the remembered state, for when a command to change it failed.
+     */
+    void forgetState() {
+        timeoutSeconds = null;
+        windowSizes = null;
+    }
+
+}
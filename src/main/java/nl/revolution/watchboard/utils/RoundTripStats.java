@@ -0,0 +1,91 @@
+package nl.revolution.watchboard.utils;
+
+import nl.revolution.watchboard.Config;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Number of WebDriver commands it takes to capture each graph. Every command is a round trip to the browser, so
+ * this is a good measure of the cost of a capture. Captures that need more commands than the configured budget are
+ * logged and counted.
+ */
+public class RoundTripStats {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoundTripStats.class);
+    private static final int DEFAULT_BUDGET = 50;
+
+    private static final RoundTripStats instance = new RoundTripStats();
+
+    private final Map<String, GraphRoundTrips> roundTripsPerGraph = new ConcurrentHashMap<>();
+
+    public static RoundTripStats getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return true if the capture stayed within the budget
+     */
+    public boolean record(String graphId, long roundTrips) {
+        int budget = getBudget();
+        boolean withinBudget = roundTrips <= budget;
+        if (!withinBudget) {
+            LOG.warn("Capture of {} took {} round trips to the browser, budget is {}.", graphId, roundTrips, budget);
+        }
+        roundTripsPerGraph.computeIfAbsent(graphId, GraphRoundTrips::new).record(roundTrips, withinBudget);
+        return withinBudget;
+    }
+
+    public JSONObject toJSON() {
+        JSONArray graphs = new JSONArray();
+        roundTripsPerGraph.values().forEach(roundTrips -> graphs.add(roundTrips.toJSON()));
+        JSONObject roundTrips = new JSONObject();
+        roundTrips.put("budget", getBudget());
+        roundTrips.put("graphs", graphs);
+        return roundTrips;
+    }
+
+    private int getBudget() {
+        int budget = Config.getInstance().getInt(Config.WEBDRIVER_ROUND_TRIP_BUDGET);
+        return budget > 0 ? budget : DEFAULT_BUDGET;
+    }
+
+    private static class GraphRoundTrips {
+        private final String graphId;
+        private long captures;
+        private long overBudget;
+        private long total;
+        private long last;
+        private long max;
+
+        GraphRoundTrips(String graphId) {
+            this.graphId = graphId;
+        }
+
+        synchronized void record(long roundTrips, boolean withinBudget) {
+            captures++;
+            if (!withinBudget) {
+                overBudget++;
+            }
+            total += roundTrips;
+            last = roundTrips;
+            max = Math.max(max, roundTrips);
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject roundTrips = new JSONObject();
+            roundTrips.put("id", graphId);
+            roundTrips.put("captures", captures);
+            roundTrips.put("overBudget", overBudget);
+            roundTrips.put("average", captures == 0 ? 0 : total / captures);
+            roundTrips.put("last", last);
+            roundTrips.put("max", max);
+            return roundTrips;
+        }
+    }
+
+}
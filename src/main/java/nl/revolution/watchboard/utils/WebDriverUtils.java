@@ -1,17 +1,24 @@
 package nl.revolution.watchboard.utils;
 
 import nl.revolution.watchboard.Config;
-import org.apache.commons.io.FileUtils;
+import nl.revolution.watchboard.data.GraphSlice;
+import nl.revolution.watchboard.images.ScreenshotPipeline;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.awt.Rectangle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class WebDriverUtils {
@@ -19,53 +26,162 @@ public class WebDriverUtils {
     private static final Logger LOG = LoggerFactory.getLogger(WebDriverUtils.class);
     public static final int WEBDRIVER_TIMEOUT_SECONDS = 60;
 
+    // Positions on the page and sizes of an element and of the slices of the page, in a single round trip. Slices
+    // that can't be found get null.
+    private static final String ELEMENT_BOUNDS_SCRIPT =
+            "function bounds(element) {" +
+            "  if (!element) { return null; }" +
+            "  var rect = element.getBoundingClientRect();" +
+            "  return [Math.round(rect.left + window.pageXOffset), Math.round(rect.top + window.pageYOffset)," +
+            "      Math.round(rect.width), Math.round(rect.height)];" +
+            "}" +
+            "var slices = arguments[1];" +
+            "var widgets = arguments[2] ? document.querySelectorAll(arguments[2]) : [];" +
+            "var result = [bounds(arguments[0])];" +
+            "for (var i = 0; i < slices.length; i++) {" +
+            "  result.push(bounds(slices[i].selector ? document.querySelector(slices[i].selector) : widgets[slices[i].index]));" +
+            "}" +
+            "return result;";
+
+    /**
+     * Timeouts are only sent to the browser when they differ from what was set before, so switching back and forth
+     * is cheap.
+     */
     public static void disableTimeouts(WebDriver driver) {
-        driver.manage().timeouts().pageLoadTimeout(0, TimeUnit.SECONDS);
-        driver.manage().timeouts().setScriptTimeout(0, TimeUnit.SECONDS);
-        driver.manage().timeouts().implicitlyWait(0, TimeUnit.SECONDS);
+        setTimeouts(driver, 0);
     }
 
     public static void enableTimeouts(WebDriver driver) {
-        driver.manage().timeouts().pageLoadTimeout(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        driver.manage().timeouts().setScriptTimeout(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        driver.manage().timeouts().implicitlyWait(WEBDRIVER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        setTimeouts(driver, WEBDRIVER_TIMEOUT_SECONDS);
     }
 
-    public static void takeScreenShot(WebDriver driver, WebElement element, String fileName) throws IOException {
-        File screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
-        // Crop the entire page screenshot to get only element screenshot.
-        try {
-            BufferedImage image = ImageIO.read(screenshot);
-            int elementWidth = element.getSize().getWidth();
-            int elementHeight = element.getSize().getHeight();
+    /**
+     * Makes page loads return immediately, leaving the other timeouts as they are.
+     */
+    public static void disablePageLoadTimeout(WebDriver driver) {
+        setTimeout(driver, RoundTripCountingDriver.Timeout.PAGE_LOAD, 0);
+    }
 
-            int subImageWidth = Math.min(elementWidth, image.getWidth() - element.getLocation().getX());
-            int subImageHeight = Math.min(elementHeight, image.getHeight() - element.getLocation().getY());
+    public static void enablePageLoadTimeout(WebDriver driver) {
+        setTimeout(driver, RoundTripCountingDriver.Timeout.PAGE_LOAD, WEBDRIVER_TIMEOUT_SECONDS);
+    }
+
+    private static void setTimeouts(WebDriver driver, int seconds) {
+        setTimeout(driver, RoundTripCountingDriver.Timeout.PAGE_LOAD, seconds);
+        setTimeout(driver, RoundTripCountingDriver.Timeout.SCRIPT, seconds);
+        setTimeout(driver, RoundTripCountingDriver.Timeout.IMPLICIT_WAIT, seconds);
+    }
 
-            if (subImageWidth != elementWidth) {
-                LOG.warn("Image will be cropped horizontally: expected {} px, but will be {} px", elementWidth, subImageWidth);
+    private static void setTimeout(WebDriver driver, RoundTripCountingDriver.Timeout timeout, int seconds) {
+        RoundTripCountingDriver countingDriver = driver instanceof RoundTripCountingDriver ? (RoundTripCountingDriver) driver : null;
+        if (countingDriver != null && !countingDriver.changeTimeout(timeout, seconds)) {
+            return;
+        }
+        try {
+            switch (timeout) {
+                case PAGE_LOAD:
+                    driver.manage().timeouts().pageLoadTimeout(seconds, TimeUnit.SECONDS);
+                    break;
+                case SCRIPT:
+                    driver.manage().timeouts().setScriptTimeout(seconds, TimeUnit.SECONDS);
+                    break;
+                default:
+                    driver.manage().timeouts().implicitlyWait(seconds, TimeUnit.SECONDS);
             }
+        } catch (RuntimeException e) {
+            if (countingDriver != null) {
+                countingDriver.forgetState();
+            }
+            throw e;
+        }
+    }
 
-            if (subImageHeight != elementHeight) {
-                LOG.warn("Image will be cropped vertically: expected {} px, but will be {} px", elementHeight, subImageHeight);
+    /**
+     * Resizes the browser window, unless it already has the given size.
+     */
+    public static void setWindowSize(WebDriver driver, int width, int height) {
+        Dimension size = new Dimension(width, height);
+        RoundTripCountingDriver countingDriver = driver instanceof RoundTripCountingDriver ? (RoundTripCountingDriver) driver : null;
+        if (countingDriver != null && !countingDriver.changeWindowSize(size)) {
+            return;
+        }
+        try {
+            driver.manage().window().setSize(size);
+        } catch (RuntimeException e) {
+            if (countingDriver != null) {
+                countingDriver.forgetState();
             }
+            throw e;
+        }
+    }
 
-            BufferedImage eleScreenshot = image.getSubimage(
-                    element.getLocation().getX(), element.getLocation().getY(),
-                    subImageWidth, subImageHeight);
-            ImageIO.write(eleScreenshot, "png", screenshot);
-            FileUtils.copyFile(screenshot, new File(fileName));
-            try {
-                screenshot.delete();
-            } catch (Exception e) {
-                LOG.error("Error while deleting screenshot: ", e);
+    /**
+     * Takes a screenshot of the page and hands it to the screenshot pipeline, which crops it to the given element and
+     * publishes it in the background.
+     */
+    public static void takeScreenShot(WebDriver driver, WebElement element, String graphId) {
+        takeScreenShot(driver, element, graphId, Collections.emptyList(), null);
+    }
+
+    /**
+     * Like {@link #takeScreenShot(WebDriver, WebElement, String)}, but also publishes the given slices of the page,
+     * all from the same screenshot.
+     *
+     * @param widgetSelector CSS selector of the widgets of the page, which slices with an index refer to
+     */
+    public static void takeScreenShot(WebDriver driver, WebElement element, String graphId, List<GraphSlice> slices,
+                                      String widgetSelector) {
+        byte[] screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+        try {
+            List<Map<String, Object>> sliceLocators = new ArrayList<>();
+            for (GraphSlice slice : slices) {
+                Map<String, Object> locator = new HashMap<>();
+                locator.put(GraphSlice.SELECTOR, slice.getSelector());
+                locator.put(GraphSlice.INDEX, slice.getIndex());
+                sliceLocators.add(locator);
             }
-            LOG.info("Updated {}.", fileName);
+            List<?> bounds = (List<?>) ((JavascriptExecutor) driver).executeScript(ELEMENT_BOUNDS_SCRIPT, element,
+                    sliceLocators, widgetSelector);
+
+            Map<String, Rectangle> boundsPerGraph = new LinkedHashMap<>();
+            boundsPerGraph.put(graphId, toRectangle(bounds.get(0)));
+            for (int i = 0; i < slices.size(); i++) {
+                String sliceId = slices.get(i).getId();
+                if (bounds.get(i + 1) == null) {
+                    LOG.warn("Slice {} of {} not found on the page.", sliceId, graphId);
+                    continue;
+                }
+                boundsPerGraph.put(sliceId, toRectangle(bounds.get(i + 1)));
+            }
+            ScreenshotPipeline.getInstance().submit(screenshot, boundsPerGraph);
         } catch (Exception e) {
             LOG.error("Error while taking screenshot:", e);
         }
     }
 
+    /**
+     * Saves a screenshot of the whole page to the temp path for troubleshooting. It is not published as a graph image.
+     */
+    public static void saveDebugScreenShot(WebDriver driver, String name) {
+        Path debugFile = Paths.get(Config.getInstance().getString(Config.TEMP_PATH), name + ".png");
+        try {
+            Files.write(debugFile, ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES));
+            LOG.info("Saved debug screenshot to {}.", debugFile);
+        } catch (Exception e) {
+            LOG.error("Error while saving debug screenshot " + debugFile + ":", e);
+        }
+    }
+
+    private static Rectangle toRectangle(Object bounds) {
+        List<?> values = (List<?>) bounds;
+        return new Rectangle(intValue(values.get(0)), intValue(values.get(1)), intValue(values.get(2)),
+                intValue(values.get(3)));
+    }
+
+    private static int intValue(Object number) {
+        return ((Number) number).intValue();
+    }
+
 
     public static void doSleep(long duration) {
         try {
@@ -82,11 +198,43 @@ public class WebDriverUtils {
         }
     }
 
-    public static int numberOfElements(WebDriver driver, By by) {
-        WebDriverUtils.disableTimeouts(driver);
-        int size = driver.findElements(by).size();
-        WebDriverUtils.enableTimeouts(driver);
-        return size;
+    /**
+     * Counts the elements matching the given CSS selector right away, in a single round trip and without waiting for
+     * any element to appear.
+     */
+    public static int numberOfElements(WebDriver driver, String cssSelector) {
+        Object count = ((JavascriptExecutor) driver).executeScript(
+                "return document.querySelectorAll(arguments[0]).length;", cssSelector);
+        return count instanceof Number ? ((Number) count).intValue() : 0;
+    }
+
+    /**
+     * Starts reloading the current page without waiting for it; the command returns right away.
+     * {@link #awaitReload(WebDriver, long)} waits until the new page has replaced the old one.
+     */
+    public static void startReload(WebDriver driver) {
+        ((JavascriptExecutor) driver).executeScript(
+                "window.__watchboardReloading = true; setTimeout(function() { location.reload(); }, 0);");
+    }
+
+    /**
+     * @return true if a reload started by {@link #startReload(WebDriver)} replaced the page within the given time
+     */
+    public static boolean awaitReload(WebDriver driver, long timeoutMillis) {
+        long waitUntil = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < waitUntil) {
+            try {
+                Object reloading = ((JavascriptExecutor) driver).executeScript("return !!window.__watchboardReloading;");
+                if (Boolean.FALSE.equals(reloading)) {
+                    return true;
+                }
+            } catch (WebDriverException e) {
+                // The old page was unloaded while the script was running; try again on the new page.
+                LOG.debug("Page was unloaded while waiting for reload: " + e.getMessage());
+            }
+            doSleep(100);
+        }
+        return false;
     }
 
     public static void fetchDummyPage(WebDriver driver) {
@@ -7,6 +7,10 @@ import org.openqa.selenium.remote.DesiredCapabilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import static nl.revolution.watchboard.utils.WebDriverUtils.doSleep;
 
 public class WebDriverWrapper {
@@ -25,7 +29,7 @@ public class WebDriverWrapper {
             desiredCapabilities.setCapability("phantomjs.cli.args", args);
             desiredCapabilities.setCapability("phantomjs.ghostdriver.cli.args", args);
             desiredCapabilities.setCapability("phantomjs.page.settings.loadImages", false);
-            driver = new PhantomJSDriver(desiredCapabilities);
+            driver = new RoundTripCountingDriver(desiredCapabilities);
             // driver = new FirefoxDriver();
             WebDriverUtils.enableTimeouts(driver);
         } catch (Exception e) {
@@ -55,6 +59,63 @@ public class WebDriverWrapper {
         start();
     }
 
+    /**
+     * @return true if the browser still answers a trivial command
+     */
+    public boolean isResponsive() {
+        try {
+            return driver != null && driver.getCurrentUrl() != null;
+        } catch (Exception e) {
+            LOG.warn("WebDriver is not responding: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return all cookies of the browser, for any domain, in PhantomJS cookie format
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> getAllCookies() {
+        if (!(driver instanceof PhantomJSDriver)) {
+            return Collections.emptyList();
+        }
+        try {
+            Object cookies = ((PhantomJSDriver) driver).executePhantomJS("return phantom.cookies;");
+            return cookies instanceof List ? (List<Map<String, Object>>) cookies : Collections.emptyList();
+        } catch (Exception e) {
+            LOG.error("Error while reading cookies: ", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Adds cookies in PhantomJS cookie format. Unlike WebDriver's addCookie, this works for any domain without
+     * loading a page of that domain first.
+     *
+     * @return the number of cookies that were accepted
+     */
+    public int addCookies(List<Map<String, Object>> cookies) {
+        if (!(driver instanceof PhantomJSDriver)) {
+            return 0;
+        }
+        try {
+            Object added = ((PhantomJSDriver) driver).executePhantomJS(
+                    "return arguments[0].filter(function(cookie) { return phantom.addCookie(cookie); }).length;", cookies);
+            return added instanceof Number ? ((Number) added).intValue() : 0;
+        } catch (Exception e) {
+            LOG.error("Error while adding cookies: ", e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return the number of commands sent to the browser since it was started; zero when it isn't running
+     */
+    public long getRoundTrips() {
+        WebDriver currentDriver = driver;
+        return currentDriver instanceof RoundTripCountingDriver ? ((RoundTripCountingDriver) currentDriver).getRoundTrips() : 0;
+    }
+
     public WebDriver getDriver() {
         return driver;
     }
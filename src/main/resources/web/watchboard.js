@@ -3,6 +3,9 @@ var configLastUpdated;
 var lastAppRefresh = new Date().getTime();
 var lastUpdated = 0;
 var numberOfColumns;
+var longPollFailures = 0;
+var maxLongPollFailures = 3;
+var refreshScheduled = false;
 
 function setURLHash() {
   location.hash = 'columns=' + numberOfColumns;
@@ -88,12 +91,16 @@ function performInitialGraphsRender() {
           "<img id=\"" + image.id + "\" " +
           "data-lastmodified=\"" + image.lastModified + "\" " +
           "src=\"" + image.filename + "\" " +
+          (image.srcset ? "srcset=\"" + image.srcset + "\" sizes=\"" + imageSizes() + "\" " : "") +
           "title=\"" + 'Last updated: ' + new Date(image.lastModified) + "\" " +
           ">" +
           "</a>";
       }
       $("#images").html(imageHTML);
       $("#images").attr("style", " -webkit-column-count: " + numberOfColumns + "; -moz-column-count: " + numberOfColumns + "; column-count: " + numberOfColumns + ";");
+
+      // Wait for pushed updates; falls back to periodic polling when long-polling is not available.
+      startLongPolling(data.version);
     }
   });
 }
@@ -130,45 +137,80 @@ function startGraphUpdateLoop() {
   $("#columnSelection").html(columnSelectionHTML);
   imageWidthPercentage = (100 / numberOfColumns) - 1;
 
-  // Initial rendering.
+  // Initial rendering; starts waiting for updates afterwards.
   performInitialGraphsRender();
+}
+
+function imageSizes() {
+  return Math.floor(100 / numberOfColumns) + 'vw';
+}
 
-  // Periodic update.
+function startLongPolling(version) {
+  $.ajax({
+    url: '../api/v1/updates/' + dashboardId + '?version=' + version,
+    timeout: 60000,
+    success: function (data) {
+      longPollFailures = 0;
+      processStatusUpdate(data);
+      startLongPolling(data.version);
+    },
+    error: function () {
+      longPollFailures++;
+      if (longPollFailures >= maxLongPollFailures) {
+        startPolling();
+      } else {
+        setTimeout(function () {
+          startLongPolling(version);
+        }, 5000);
+      }
+    }
+  });
+}
+
+function startPolling() {
   setInterval(function () {
     $.ajax({
       url: '../api/v1/status/' + dashboardId,
-      success: function (data) {
-        // (New backend version OR config update)
-        // AND last refresh was over 30 seconds ago (to throttle refreshes).
-        if (((appVersion != data.appVersion) ||  (configLastUpdated != data.configLastUpdated))
-          && (new Date().getTime() - lastAppRefresh > 30000)) {
-          // Force reload of page from server to keep front- and backend in sync.
-          refreshPage();
-        }
-
-        for (var i = 0; i < data.images.length; i++) {
-          image = data.images[i];
-          imageElement = $('img#' + image.id)
-          storedLastModified = imageElement.attr("data-lastmodified");
-          newLastModified = image.lastModified;
-          if (newLastModified != storedLastModified) {
-            // refresh.
-            imageElement.attr('data-lastmodified', image.lastModified);
-            imageElement.attr('src', image.filename + '?' + image.lastModified);
-            imageElement.attr('title', 'Last updated: ' + new Date(image.lastModified));
-          }
-          if (newLastModified > lastUpdated) {
-            lastUpdated = newLastModified;
-            $("#lastUpdated").text(new Date(lastUpdated));
-          }
-        }
-
-      }
+      success: processStatusUpdate
     });
     // Scan each second for updated images.
   }, 1000);
 }
 
+function processStatusUpdate(data) {
+  // New backend version OR config update.
+  if ((appVersion != data.appVersion) ||  (configLastUpdated != data.configLastUpdated)) {
+    // Force reload of page from server to keep front- and backend in sync. Reload at most once every
+    // 30 seconds (to throttle refreshes); with long-polling no further status may arrive, so schedule it.
+    if (!refreshScheduled) {
+      refreshScheduled = true;
+      setTimeout(refreshPage, Math.max(0, 30000 - (new Date().getTime() - lastAppRefresh)));
+    }
+  }
+
+  for (var i = 0; i < data.images.length; i++) {
+    image = data.images[i];
+    imageElement = $('img#' + image.id)
+    storedLastModified = imageElement.attr("data-lastmodified");
+    newLastModified = image.lastModified;
+    if (newLastModified != storedLastModified) {
+      // refresh.
+      imageElement.attr('data-lastmodified', image.lastModified);
+      imageElement.attr('src', image.filename + '?' + image.lastModified);
+      if (image.srcset) {
+        // Let the browser pick the smallest variant that fits the column width.
+        imageElement.attr('sizes', imageSizes());
+        imageElement.attr('srcset', image.srcset);
+      }
+      imageElement.attr('title', 'Last updated: ' + new Date(image.lastModified));
+    }
+    if (newLastModified > lastUpdated) {
+      lastUpdated = newLastModified;
+      $("#lastUpdated").text(new Date(lastUpdated));
+    }
+  }
+}
+
 function fetchDashboardConfig() {
   $.ajax({
     url: '../api/v1/config',
@@ -0,0 +1,50 @@
+package nl.revolution.watchboard;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphChangeTrackerTest {
+
+    private final GraphChangeTracker tracker = new GraphChangeTracker();
+
+    @Test
+    public void stretchesIntervalOfStaticGraphUpToMaximum() {
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(60));
+        tracker.recordCapture("graph", false);
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(75));
+        for (int i = 0; i < 10; i++) {
+            tracker.recordCapture("graph", false);
+        }
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(300));
+    }
+
+    @Test
+    public void shortensIntervalOfChangingGraphBelowBaseDownToMinimum() {
+        tracker.getUpdateIntervalSeconds("graph", 60, 30, 300);
+        tracker.recordCapture("graph", true);
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(48));
+        for (int i = 0; i < 5; i++) {
+            tracker.recordCapture("graph", true);
+        }
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(30));
+    }
+
+    @Test
+    public void singleChangeDoesNotUndoLearnedInterval() {
+        tracker.getUpdateIntervalSeconds("graph", 60, 30, 300);
+        for (int i = 0; i < 10; i++) {
+            tracker.recordCapture("graph", false);
+        }
+        tracker.recordCapture("graph", true);
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(300));
+
+        // Once it keeps changing, the interval goes down again.
+        for (int i = 0; i < 15; i++) {
+            tracker.recordCapture("graph", true);
+        }
+        assertThat(tracker.getUpdateIntervalSeconds("graph", 60, 30, 300), is(30));
+    }
+
+}
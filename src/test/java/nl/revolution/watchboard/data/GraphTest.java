@@ -3,6 +3,9 @@ package nl.revolution.watchboard.data;
 import org.json.simple.JSONObject;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
@@ -35,11 +38,69 @@ public class GraphTest {
         assertThat(actual.toJSONString(), is(expected.toJSONString()));
     }
 
+    @Test
+    public void toJSONAdvertisesSmallerVariants() throws Exception {
+        Graph graph = createTestGraph(700);
+        graph.setId(ID);
+        graph.setType(TYPE);
+
+        String filename = CONTEXT_ROOT + Graph.IMAGES_PATH + ID + Graph.IMAGE_SUFFIX;
+        String expected = filename + "?w=320&t=200 320w, "
+                + filename + "?w=480&t=200 480w, "
+                + filename + "?w=640&t=200 640w, "
+                + filename + "?t=200 700w";
+
+        assertThat(graph.toJSON(CONTEXT_ROOT).get(Graph.SRCSET), is(expected));
+    }
+
+    @Test
+    public void derivesImageIdsForSlicesAndTimeRanges() throws Exception {
+        Graph graph = createTestGraph();
+        graph.setId(ID);
+        GraphSlice slice = new GraphSlice();
+        slice.setId("slice");
+        graph.setSlices(Collections.singletonList(slice));
+        graph.setAdditionalTimeRanges(Arrays.asList(3, 12));
+
+        assertThat(graph.getDerivedImageIds(), is(Arrays.asList("slice", "id-3", "slice-3", "id-12", "slice-12")));
+    }
+
+    @Test
+    public void duplicatesArePublishedFromTheSameCapture() throws Exception {
+        Graph graph = createTestGraph();
+        graph.setId(ID);
+        graph.setType(TYPE);
+        graph.setUrl(URL);
+        graph.setAdditionalTimeRanges(Collections.singletonList(3));
+        Graph duplicate = createTestGraph();
+        duplicate.setId("duplicate");
+        duplicate.setType(TYPE);
+        duplicate.setUrl(URL);
+        duplicate.setAdditionalTimeRanges(Collections.singletonList(3));
+        assertThat(duplicate.getCaptureKey(), is(graph.getCaptureKey()));
+
+        graph.getDuplicates().add(duplicate);
+        assertThat(graph.getImageAliases().get(ID), is(Collections.singletonList("duplicate")));
+        assertThat(graph.getImageAliases().get("id-3"), is(Collections.singletonList("duplicate-3")));
+        assertThat(graph.getDerivedImageIds(), is(Arrays.asList("id-3", "duplicate", "duplicate-3")));
+
+        duplicate.setBrowserWidth(800);
+        assertThat(duplicate.getCaptureKey().equals(graph.getCaptureKey()), is(false));
+    }
+
     private Graph createTestGraph() {
+        return createTestGraph(0);
+    }
+
+    private Graph createTestGraph(int imageWidth) {
         return new Graph() {
             protected long determineLastModified() {
                 return LAST_MODIFIED_VALUE;
             }
+
+            protected int determineImageWidth() {
+                return imageWidth;
+            }
         };
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package nl.revolution.watchboard.images;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DirectMemoryImageStoreTest {
+
+    private static final String GRAPH_ID = "g";
+    private static final byte[] CONTENT = "not really a png".getBytes();
+    private static final byte[] NEW_CONTENT = "not really a newer png".getBytes();
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void publishReplacesImage() {
+        ImageStore store = new DirectMemoryImageStore(null, imageId -> true);
+        PublishedImage first = store.publish(GRAPH_ID, CONTENT, DigestUtils.sha1Hex(CONTENT));
+        PublishedImage second = store.publish(GRAPH_ID, NEW_CONTENT, DigestUtils.sha1Hex(NEW_CONTENT));
+
+        assertThat(store.get(GRAPH_ID), is(sameInstance(second)));
+        assertTrue(second.getVersion() > first.getVersion());
+        assertThat(second.getSize(), is((long) NEW_CONTENT.length));
+        assertThat(second.getContentHash(), is(DigestUtils.sha1Hex(NEW_CONTENT)));
+        assertThat(toArray(second.getContent()), is(NEW_CONTENT));
+
+        // Readers of the previous image are not affected.
+        assertThat(toArray(first.getContent()), is(CONTENT));
+    }
+
+    @Test
+    public void publishPersistsImage() throws Exception {
+        File persistencePath = tempFolder.newFolder();
+        new DirectMemoryImageStore(persistencePath, GRAPH_ID::equals).publish(GRAPH_ID, CONTENT, DigestUtils.sha1Hex(CONTENT));
+
+        assertThat(FileUtils.readFileToByteArray(new File(persistencePath, GRAPH_ID + ".png")), is(CONTENT));
+        assertThat(persistencePath.list().length, is(1));
+    }
+
+    @Test
+    public void getRestoresPersistedImage() throws Exception {
+        File persistencePath = tempFolder.newFolder();
+        File imageFile = new File(persistencePath, GRAPH_ID + ".png");
+        FileUtils.writeByteArrayToFile(imageFile, CONTENT);
+
+        ImageStore store = new DirectMemoryImageStore(persistencePath, GRAPH_ID::equals);
+        PublishedImage image = store.get(GRAPH_ID);
+
+        assertThat(image.getLastModified(), is(imageFile.lastModified()));
+        assertThat(toArray(image.getContent()), is(CONTENT));
+        assertThat(store.get(GRAPH_ID), is(sameInstance(image)));
+        assertThat(store.get("missing"), is(nullValue()));
+    }
+
+    @Test
+    public void getDoesNotRestoreUnknownImages() throws Exception {
+        File persistencePath = tempFolder.newFolder();
+        FileUtils.writeByteArrayToFile(new File(persistencePath, "stray.png"), CONTENT);
+
+        assertThat(new DirectMemoryImageStore(persistencePath, GRAPH_ID::equals).get("stray"), is(nullValue()));
+    }
+
+    @Test
+    public void getDoesNotTouchDiskWithoutPersistence() {
+        assertThat(new DirectMemoryImageStore(null, imageId -> true).get(GRAPH_ID), is(nullValue()));
+    }
+
+    private byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,67 @@
+package nl.revolution.watchboard.images;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ImageRegistryTest {
+
+    private static final String GRAPH_ID = "g";
+    private static final byte[] CONTENT = "not really a png".getBytes();
+    private static final byte[] NEW_CONTENT = "not really a newer png".getBytes();
+
+    private final ImageRegistry registry = new ImageRegistry(new DirectMemoryImageStore(null, imageId -> false));
+
+    @Test
+    public void publishingSameContentKeepsImage() throws Exception {
+        PublishedImage image = registry.publish(GRAPH_ID, CONTENT);
+        Thread.sleep(5);
+
+        PublishedImage republished = registry.publish(GRAPH_ID, CONTENT.clone());
+
+        assertThat(republished, is(sameInstance(image)));
+        assertThat(republished.getVersion(), is(image.getVersion()));
+        assertThat(republished.getLastModified(), is(image.getLastModified()));
+        assertThat(registry.get(GRAPH_ID), is(sameInstance(image)));
+    }
+
+    @Test
+    public void publishingChangedContentReplacesImage() throws Exception {
+        PublishedImage image = registry.publish(GRAPH_ID, CONTENT);
+        Thread.sleep(5);
+
+        PublishedImage changed = registry.publish(GRAPH_ID, NEW_CONTENT);
+
+        assertTrue(changed.getVersion() > image.getVersion());
+        assertTrue(changed.getLastModified() > image.getLastModified());
+        assertThat(changed.getSize(), is((long) NEW_CONTENT.length));
+        assertThat(registry.get(GRAPH_ID), is(sameInstance(changed)));
+    }
+
+    @Test
+    public void servesVariantsOfCurrentImageOnly() throws Exception {
+        BufferedImage graph = new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB);
+        PngEncoder encoder = new PngEncoder(6, null, true);
+        Map<Integer, byte[]> variants = ImageVariantCache.createVariants(graph, encoder);
+        assertThat(variants.keySet(), is(new HashSet<>(Arrays.asList(320, 480, 640, 960))));
+
+        PublishedImage image = registry.publish(GRAPH_ID, encoder.encode(graph), variants);
+        PublishedImage variant = registry.getVariant(image, 400);
+        assertThat(variant.getWidth(), is(480));
+        assertThat(variant.getVersion(), is(image.getVersion()));
+        assertThat(registry.getVariant(image, 1200), is(sameInstance(image)));
+
+        // A newer image without variants is served as it is.
+        PublishedImage changed = registry.publish(GRAPH_ID, CONTENT);
+        assertThat(registry.getVariant(changed, 400), is(sameInstance(changed)));
+    }
+
+}
@@ -0,0 +1,29 @@
+package nl.revolution.watchboard.images;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ImageScalerTest {
+
+    @Test
+    public void fitsImageKeepingAspectRatio() {
+        BufferedImage image = new BufferedImage(1200, 600, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage byWidth = ImageScaler.fit(image, 300, -1);
+        assertThat(byWidth.getWidth(), is(300));
+        assertThat(byWidth.getHeight(), is(150));
+
+        BufferedImage byHeight = ImageScaler.fit(image, 400, 100);
+        assertThat(byHeight.getWidth(), is(200));
+        assertThat(byHeight.getHeight(), is(100));
+
+        // Images are never scaled up.
+        assertThat(ImageScaler.fit(image, 2400, -1), is(sameInstance(image)));
+    }
+
+}
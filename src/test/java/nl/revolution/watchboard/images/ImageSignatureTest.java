@@ -0,0 +1,39 @@
+package nl.revolution.watchboard.images;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ImageSignatureTest {
+
+    @Test
+    public void measuresChangedFractionOfImage() {
+        BufferedImage image = createImage(160, 160);
+        ImageSignature original = ImageSignature.of(image);
+        assertThat(ImageSignature.of(createImage(160, 160)).difference(original), is(0.0));
+
+        // A single changed pixel, like a ticking clock, only changes its own block.
+        image.setRGB(5, 5, Color.RED.getRGB());
+        assertThat(ImageSignature.of(image).difference(original), is(0.01));
+
+        assertThat(ImageSignature.of(createImage(160, 170)).difference(original), is(1.0));
+        assertThat(original.difference(null), is(1.0));
+    }
+
+    private static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.BLUE);
+        graphics.drawLine(0, height, width, 0);
+        graphics.dispose();
+        return image;
+    }
+
+}
@@ -0,0 +1,88 @@
+package nl.revolution.watchboard.images;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PngEncoderTest {
+
+    @Test
+    public void writesGraphWithFewColorsAsLosslessPaletteImage() throws Exception {
+        BufferedImage graph = createGraph(false);
+
+        byte[] png = new PngEncoder(6, null, true).encode(graph);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertTrue(decoded.getColorModel() instanceof IndexColorModel);
+        assertSamePixels(decoded, graph);
+        assertTrue(png.length < encodeWithImageIO(graph).length);
+    }
+
+    @Test
+    public void writesTruecolorImageWithEveryFilter() throws Exception {
+        BufferedImage graph = createGraph(true);
+
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            byte[] png = new PngEncoder(6, filter, false).encode(graph);
+            assertSamePixels(ImageIO.read(new ByteArrayInputStream(png)), graph);
+        }
+    }
+
+    @Test
+    public void quantizesImageWithManyColors() throws Exception {
+        BufferedImage graph = createGraph(true);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(new PngEncoder(6, null, true).encode(graph)));
+
+        assertTrue(decoded.getColorModel() instanceof IndexColorModel);
+        assertThat(decoded.getWidth(), is(graph.getWidth()));
+        assertThat(decoded.getHeight(), is(graph.getHeight()));
+        // The background is by far the most common color, so it must survive quantization.
+        assertThat(decoded.getRGB(0, 0), is(graph.getRGB(0, 0)));
+    }
+
+    private BufferedImage createGraph(boolean antialiased) {
+        BufferedImage graph = new BufferedImage(400, 200, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = graph.createGraphics();
+        if (antialiased) {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 400, 200);
+        Color[] lineColors = {Color.BLUE, Color.ORANGE, new Color(44, 160, 44)};
+        for (int line = 0; line < lineColors.length; line++) {
+            graphics.setColor(lineColors[line]);
+            for (int x = 0; x < 390; x += 10) {
+                graphics.drawLine(x, 50 + line * 40 + (x * 7 % 30), x + 10, 50 + line * 40 + ((x + 10) * 7 % 30));
+            }
+        }
+        graphics.dispose();
+        return graph;
+    }
+
+    private byte[] encodeWithImageIO(BufferedImage image) throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    private void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y), is(expected.getRGB(x, y)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package nl.revolution.watchboard.images;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ScreenshotDecoderTest {
+
+    @Test
+    public void decodesOnlyElementRegion() throws Exception {
+        BufferedImage page = createPage(300, 200);
+
+        ScreenshotDecoder.decodeRegion(encode(page), new Rectangle(40, 30, 100, 50), region -> {
+            assertThat(region.getWidth(), is(100));
+            assertThat(region.getHeight(), is(50));
+            assertSamePixels(region, page.getSubimage(40, 30, 100, 50));
+        });
+    }
+
+    @Test
+    public void clipsRegionToPageAndReusesBuffer() throws Exception {
+        BufferedImage page = createPage(300, 200);
+        byte[] screenshot = encode(page);
+
+        List<DataBuffer> buffers = new ArrayList<>();
+        ScreenshotDecoder.decodeRegion(screenshot, new Rectangle(0, 0, 300, 200),
+                large -> buffers.add(large.getRaster().getDataBuffer()));
+        ScreenshotDecoder.decodeRegion(screenshot, new Rectangle(250, 150, 100, 100), clipped -> {
+            assertThat(clipped.getWidth(), is(50));
+            assertThat(clipped.getHeight(), is(50));
+            assertSamePixels(clipped, page.getSubimage(250, 150, 50, 50));
+            buffers.add(clipped.getRaster().getDataBuffer());
+        });
+        assertThat(buffers.get(1) == buffers.get(0), is(true));
+    }
+
+    @Test
+    public void nestedDecodeDoesNotOverwriteRegionInUse() throws Exception {
+        BufferedImage page = createPage(300, 200);
+        byte[] screenshot = encode(page);
+
+        ScreenshotDecoder.decodeRegion(screenshot, new Rectangle(0, 0, 100, 100), outer -> {
+            ScreenshotDecoder.decodeRegion(screenshot, new Rectangle(200, 100, 100, 100), inner -> { });
+            assertSamePixels(outer, page.getSubimage(0, 0, 100, 100));
+        });
+    }
+
+    private BufferedImage createPage(int width, int height) {
+        BufferedImage page = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                page.setRGB(x, y, 0xff000000 | (x << 16) | (y << 8) | ((x + y) & 0xff));
+            }
+        }
+        return page;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    private void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y), is(expected.getRGB(x, y)));
+            }
+        }
+    }
+
+}
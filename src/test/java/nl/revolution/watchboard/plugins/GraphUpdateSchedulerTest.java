@@ -0,0 +1,160 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.GraphSlice;
+import nl.revolution.watchboard.plugins.GraphUpdateScheduler.ScheduledGraph;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GraphUpdateSchedulerTest {
+
+    private static final Set<Graph.Type> NO_PREFERENCE = EnumSet.noneOf(Graph.Type.class);
+
+    private final Map<Graph.Type, List<Graph>> graphsPerType = new EnumMap<>(Graph.Type.class);
+    private final Map<Graph.Type, Integer> intervalPerType = new EnumMap<>(Graph.Type.class);
+    private final GraphUpdateScheduler scheduler = new GraphUpdateScheduler(graphsPerType::get,
+            scheduledGraph -> intervalPerType.get(scheduledGraph.getType()));
+
+    @Test
+    public void updatesMostOverdueGraphFirst() throws Exception {
+        configure(Graph.Type.KIBANA, 1, "fast");
+        configure(Graph.Type.SONAR, 3600, "slow");
+        long now = System.currentTimeMillis();
+        scheduler.synchronize(Arrays.asList(Graph.Type.SONAR, Graph.Type.KIBANA), now);
+
+        ScheduledGraph slow = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph fast = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        assertThat(slow.getGraph().getId(), is("slow"));
+        assertThat(fast.getGraph().getId(), is("fast"));
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(nullValue()));
+
+        // Both were updated a while ago; the fast graph is due again first.
+        scheduler.reschedule(slow, now - 5000);
+        scheduler.reschedule(fast, now - 5000);
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(fast));
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(nullValue()));
+    }
+
+    @Test
+    public void waitsUntilNextDeadline() throws Exception {
+        configure(Graph.Type.KIBANA, 1, "graph");
+        scheduler.synchronize(Collections.singletonList(Graph.Type.KIBANA), System.currentTimeMillis());
+        ScheduledGraph graph = scheduler.awaitNextDue(0, NO_PREFERENCE);
+
+        long start = System.currentTimeMillis();
+        scheduler.reschedule(graph, start);
+        assertThat(scheduler.awaitNextDue(5000, NO_PREFERENCE), is(graph));
+        assertThat(System.currentTimeMillis() - start >= 1000, is(true));
+    }
+
+    @Test
+    public void prefersGraphsOfLoggedInPluginsWithinAffinityWindow() throws Exception {
+        configure(Graph.Type.KIBANA, 60, "kibana");
+        configure(Graph.Type.SONAR, 60, "sonar");
+        long now = System.currentTimeMillis();
+        scheduler.synchronize(Arrays.asList(Graph.Type.KIBANA, Graph.Type.SONAR), now);
+        ScheduledGraph kibana = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph sonar = scheduler.awaitNextDue(0, NO_PREFERENCE);
+
+        // Kibana is a bit more overdue, but a browser logged in to Sonar handles Sonar first.
+        scheduler.reschedule(kibana, now - 65 * 1000);
+        scheduler.reschedule(sonar, now - 61 * 1000);
+        assertThat(scheduler.awaitNextDue(0, EnumSet.of(Graph.Type.SONAR)), is(sonar));
+
+        // Far beyond the window, the most overdue graph goes first regardless.
+        scheduler.reschedule(sonar, now - 61 * 1000);
+        scheduler.reschedule(kibana, now - 10 * 60 * 1000);
+        assertThat(scheduler.awaitNextDue(0, EnumSet.of(Graph.Type.SONAR)), is(kibana));
+    }
+
+    @Test
+    public void dropsGraphsThatAreNoLongerConfigured() throws Exception {
+        configure(Graph.Type.KIBANA, 1, "kept", "removed");
+        scheduler.synchronize(Collections.singletonList(Graph.Type.KIBANA), System.currentTimeMillis());
+        ScheduledGraph inProgress = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        assertThat(inProgress.getGraph().getId(), is("kept"));
+
+        graphsPerType.put(Graph.Type.KIBANA, Collections.singletonList(inProgress.getGraph()));
+        scheduler.synchronize(Collections.singletonList(Graph.Type.KIBANA), System.currentTimeMillis());
+
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(nullValue()));
+        scheduler.reschedule(inProgress, 0);
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(inProgress));
+    }
+
+    @Test
+    public void expeditedGraphsGoFirst() throws Exception {
+        configure(Graph.Type.KIBANA, 60, "overdue", "watched");
+        long now = System.currentTimeMillis();
+        scheduler.synchronize(Collections.singletonList(Graph.Type.KIBANA), now);
+        ScheduledGraph overdue = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph watched = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        scheduler.reschedule(overdue, now - 120 * 1000);
+        scheduler.reschedule(watched, now + 600 * 1000);
+
+        scheduler.expedite(Arrays.asList("watched", "unknown"), now);
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(watched));
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(overdue));
+    }
+
+    @Test
+    public void slicesExpediteTheirGraph() throws Exception {
+        configure(Graph.Type.CLOUDWATCH_DASHBOARD, 60, "overdue", "dashboard");
+        GraphSlice slice = new GraphSlice();
+        slice.setId("widget");
+        graphsPerType.get(Graph.Type.CLOUDWATCH_DASHBOARD).get(1).setSlices(Collections.singletonList(slice));
+        long now = System.currentTimeMillis();
+        scheduler.synchronize(Collections.singletonList(Graph.Type.CLOUDWATCH_DASHBOARD), now);
+        ScheduledGraph overdue = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph dashboard = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        scheduler.reschedule(overdue, now - 120 * 1000);
+        scheduler.reschedule(dashboard, now + 600 * 1000);
+
+        scheduler.expedite(Collections.singletonList("widget"), now);
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(dashboard));
+    }
+
+    @Test
+    public void takesDueGraphsMatchingFilter() throws Exception {
+        configure(Graph.Type.KIBANA, 60, "first", "tab", "other", "later");
+        long now = System.currentTimeMillis();
+        scheduler.synchronize(Collections.singletonList(Graph.Type.KIBANA), now);
+        // "first" is being updated.
+        scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph tab = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph other = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        ScheduledGraph later = scheduler.awaitNextDue(0, NO_PREFERENCE);
+        scheduler.reschedule(tab, now - 70 * 1000);
+        scheduler.reschedule(other, now - 80 * 1000);
+        scheduler.reschedule(later, now);
+
+        List<ScheduledGraph> taken = scheduler.takeDue(scheduledGraph -> !scheduledGraph.getGraph().getId().equals("other"),
+                now, 10);
+        assertThat(taken, is(Collections.singletonList(tab)));
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(other));
+        assertThat(scheduler.awaitNextDue(0, NO_PREFERENCE), is(nullValue()));
+    }
+
+    private void configure(Graph.Type type, int updateIntervalSeconds, String... graphIds) {
+        Graph[] graphs = new Graph[graphIds.length];
+        for (int i = 0; i < graphIds.length; i++) {
+            graphs[i] = new Graph();
+            graphs[i].setId(graphIds[i]);
+            graphs[i].setType(type);
+        }
+        graphsPerType.put(type, Arrays.asList(graphs));
+        intervalPerType.put(type, updateIntervalSeconds);
+    }
+
+}
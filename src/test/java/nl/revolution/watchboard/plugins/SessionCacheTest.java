@@ -0,0 +1,157 @@
+package nl.revolution.watchboard.plugins;
+
+import nl.revolution.watchboard.data.Graph;
+import nl.revolution.watchboard.data.Plugin;
+import nl.revolution.watchboard.utils.WebDriverWrapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SessionCacheTest {
+
+    private static final String LOGIN_URL = "https://kibana.example.co.uk/login";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Plugin plugin;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = tempFolder.newFolder().toPath();
+        plugin = createPlugin("secret");
+    }
+
+    @Test
+    public void restoresSavedSessionInNewBrowser() throws Exception {
+        Map<String, Object> session = cookie("session", ".kibana.example.co.uk", null);
+        Map<String, Object> login = cookie("login", "kibana.example.co.uk", futureExpiry());
+        new SessionCache(directory).save(plugin, browserWithCookies(session, login,
+                cookie("other", "other.example.co.uk", null)));
+
+        // A new cache, as after a restart, has to read the session from disk.
+        WebDriverWrapper browser = mock(WebDriverWrapper.class);
+        when(browser.addCookies(anyList())).thenReturn(2);
+        assertThat(new SessionCache(directory).restore(plugin, browser), is(true));
+        assertThat(restoredCookies(browser), is(Arrays.asList(session, login)));
+    }
+
+    @Test
+    public void savesSessionOnlyAccessibleForOwner() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        new SessionCache(directory).save(plugin, browserWithCookies(cookie("session", "kibana.example.co.uk", null)));
+
+        Path file = directory.resolve(SessionCache.sessionId(plugin) + ".session");
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file)), is("rw-------"));
+    }
+
+    @Test
+    public void ignoresSessionSavedWithOtherPassword() throws Exception {
+        new SessionCache(directory).save(plugin, browserWithCookies(cookie("session", "kibana.example.co.uk", null)));
+
+        WebDriverWrapper browser = mock(WebDriverWrapper.class);
+        assertThat(new SessionCache(directory).restore(createPlugin("changed"), browser), is(false));
+        verify(browser, never()).addCookies(anyList());
+        assertThat(isEmpty(directory), is(true));
+    }
+
+    @Test
+    public void discardsExpiredSession() throws Exception {
+        long expired = System.currentTimeMillis() / 1000 - 60;
+        new SessionCache(directory).save(plugin, browserWithCookies(cookie("login", "kibana.example.co.uk", expired)));
+
+        WebDriverWrapper browser = mock(WebDriverWrapper.class);
+        assertThat(new SessionCache(directory).restore(plugin, browser), is(false));
+        verify(browser, never()).addCookies(anyList());
+        assertThat(isEmpty(directory), is(true));
+    }
+
+    @Test
+    public void invalidateDeletesSavedSession() throws Exception {
+        SessionCache cache = new SessionCache(directory);
+        cache.save(plugin, browserWithCookies(cookie("session", "kibana.example.co.uk", null)));
+        assertThat(isEmpty(directory), is(false));
+
+        cache.invalidate(plugin);
+        assertThat(isEmpty(directory), is(true));
+        assertThat(cache.restore(plugin, mock(WebDriverWrapper.class)), is(false));
+    }
+
+    @Test
+    public void matchesCookieDomainsToHostOfLoginUrl() {
+        String host = SessionCache.host("https://signin.aws.amazon.com/console");
+        assertThat(host, is("signin.aws.amazon.com"));
+        assertThat(SessionCache.domainMatches(host, "signin.aws.amazon.com"), is(true));
+        assertThat(SessionCache.domainMatches(host, ".aws.amazon.com"), is(true));
+        assertThat(SessionCache.domainMatches(host, ".amazon.com"), is(true));
+        assertThat(SessionCache.domainMatches(host, "console.aws.amazon.com"), is(false));
+        assertThat(SessionCache.domainMatches(host, "xamazon.com"), is(false));
+        assertThat(SessionCache.domainMatches("kibana.example.co.uk", ".example.co.uk"), is(true));
+        assertThat(SessionCache.domainMatches("kibana.example.co.uk", "other.example.co.uk"), is(false));
+        assertThat(SessionCache.domainMatches(SessionCache.host(null), "example.org"), is(false));
+    }
+
+    private Plugin createPlugin(String password) {
+        Plugin plugin = new Plugin();
+        plugin.setType(Graph.Type.KIBANA);
+        plugin.setLoginUrl(LOGIN_URL);
+        plugin.setUsername("watchboard");
+        plugin.setPassword(password);
+        return plugin;
+    }
+
+    @SafeVarargs
+    private final WebDriverWrapper browserWithCookies(Map<String, Object>... cookies) {
+        WebDriverWrapper browser = mock(WebDriverWrapper.class);
+        when(browser.getAllCookies()).thenReturn(Arrays.asList(cookies));
+        return browser;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> restoredCookies(WebDriverWrapper browser) {
+        ArgumentCaptor<List> cookies = ArgumentCaptor.forClass(List.class);
+        verify(browser).addCookies(cookies.capture());
+        return cookies.getValue();
+    }
+
+    private Map<String, Object> cookie(String name, String domain, Long expiry) {
+        Map<String, Object> cookie = new HashMap<>();
+        cookie.put("name", name);
+        cookie.put("value", name + "-value");
+        cookie.put("domain", domain);
+        if (expiry != null) {
+            cookie.put("expiry", expiry);
+        }
+        return cookie;
+    }
+
+    private long futureExpiry() {
+        return System.currentTimeMillis() / 1000 + 3600;
+    }
+
+    private boolean isEmpty(Path directory) throws Exception {
+        return directory.toFile().list().length == 0;
+    }
+
+}
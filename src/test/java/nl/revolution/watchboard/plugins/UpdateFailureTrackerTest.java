@@ -0,0 +1,34 @@
+package nl.revolution.watchboard.plugins;
+
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class UpdateFailureTrackerTest {
+
+    private final UpdateFailureTracker tracker = new UpdateFailureTracker();
+
+    @Test
+    public void backsOffExponentiallyUpToMaximum() {
+        assertThat(tracker.recordFailure("graph", 0), is(30 * 1000L));
+        assertThat(tracker.recordFailure("graph", 0), is(60 * 1000L));
+        assertThat(tracker.recordFailure("graph", 0), is(120 * 1000L));
+        assertThat(UpdateFailureTracker.backoffMillis(100), is(30 * 60 * 1000L));
+    }
+
+    @Test
+    public void opensCircuitAfterConsecutiveFailuresUntilSuccess() {
+        tracker.recordFailure("graph", 0);
+        tracker.recordFailure("graph", 0);
+        assertThat(tracker.isCircuitOpen("graph"), is(false));
+        tracker.recordFailure("graph", 0);
+        assertThat(tracker.isCircuitOpen("graph"), is(true));
+        assertThat(tracker.isCircuitOpen("other"), is(false));
+
+        tracker.recordSuccess("graph");
+        assertThat(tracker.isCircuitOpen("graph"), is(false));
+        assertThat(tracker.recordFailure("graph", 0), is(30 * 1000L));
+    }
+
+}
@@ -0,0 +1,55 @@
+package nl.revolution.watchboard.utils;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConditionalRequestUtilTest {
+
+    private static final String ETAG = "\"abc123\"";
+    private static final long LAST_MODIFIED = 1500000000123L;
+
+    @Test
+    public void matchesETag() {
+        assertTrue(ConditionalRequestUtil.matchesETag(requestWithIfNoneMatch(ETAG), ETAG));
+        assertTrue(ConditionalRequestUtil.matchesETag(requestWithIfNoneMatch("\"other\", W/" + ETAG), ETAG));
+        assertTrue(ConditionalRequestUtil.matchesETag(requestWithIfNoneMatch("\"abc123-gzip\""), ETAG));
+        assertTrue(ConditionalRequestUtil.matchesETag(requestWithIfNoneMatch("*"), ETAG));
+        assertFalse(ConditionalRequestUtil.matchesETag(requestWithIfNoneMatch("\"other\""), ETAG));
+        assertFalse(ConditionalRequestUtil.matchesETag(mock(HttpServletRequest.class), ETAG));
+    }
+
+    @Test
+    public void isNotModifiedPrefersIfNoneMatch() {
+        HttpServletRequest request = requestWithIfNoneMatch("\"other\"");
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(LAST_MODIFIED);
+
+        assertFalse(ConditionalRequestUtil.isNotModified(request, ETAG, LAST_MODIFIED));
+    }
+
+    @Test
+    public void isNotModifiedComparesSecondsSinceModification() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        assertFalse(ConditionalRequestUtil.isNotModified(request, ETAG, LAST_MODIFIED));
+
+        // HTTP dates have a resolution of one second.
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(1500000000000L);
+        assertTrue(ConditionalRequestUtil.isNotModified(request, ETAG, LAST_MODIFIED));
+
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(1499999999000L);
+        assertFalse(ConditionalRequestUtil.isNotModified(request, ETAG, LAST_MODIFIED));
+    }
+
+    private HttpServletRequest requestWithIfNoneMatch(String ifNoneMatch) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        return request;
+    }
+
+}